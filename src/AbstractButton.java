@@ -1,9 +1,22 @@
-import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This abstract class mostly defines the button that is on each floor. 
  * There is only a single abstract method, 'press()' which is called when
- * the person on the floor with this button presses the button.
+ * the person on the floor with this button presses the button. <br><br>
+ * 
+ * A floor really has two buttons, up and down. Each Person presses the one
+ * for the way they are going (see Person.getDirection()), and the controller
+ * learns which through request(). waiting(Direction) says whether either
+ * button is lit. <br><br>
+ *
+ * The button does not keep the people it spawns. It counts those still
+ * waiting, per direction, and those not yet delivered, and each Person
+ * updates the counts as they board and get off, so waiting() and done()
+ * take constant time and a button's memory does not grow with the number of
+ * presses. Delivered people are only kept in the simulation's running
+ * totals and latency histograms.
  *
  */
 public abstract class AbstractButton implements Runnable {
@@ -11,7 +24,18 @@ public abstract class AbstractButton implements Runnable {
 	public final int floor;
 	private Thread thread;
 	protected AbstractElevatorController control;
-	private ArrayList<Person> p;
+	/**
+	 * The people spawned here who have not boarded, indexed by
+	 * Direction.ordinal(), and those who have not got off.
+	 */
+	private final AtomicInteger[] waiting = { new AtomicInteger(), new AtomicInteger() };
+	private final AtomicInteger outstanding = new AtomicInteger();
+	/**
+	 * This button's own generator for press times and destinations, split
+	 * from the simulation's 'seed' so that buttons never contend on it and
+	 * the same seed gives the same presses.
+	 */
+	private final SplittableRandom random;
 	//private boolean done = false;
 	
 	/**
@@ -33,51 +57,103 @@ public abstract class AbstractButton implements Runnable {
 		this.control = control;
 		//control.buttons[floor] = this;
 		//p = new Person(floor);
-		p = new ArrayList<Person>();
+		random = Simulation.current().split();
 	}
 	public final void start() {
-		thread = new Thread(this);
+		thread = Simulation.newThread(this);
 		thread.start();
 	}
 
 	@Override
 	public final void run() {
-		for (int i = 0; i < Simulation.current.pressCount; i++) {
+		for (int i = 0; i < Simulation.current().pressCount; i++) {
 			try {
-				Thread.sleep(Simulation.randInt(Simulation.current.testLengthSeconds*1000));
+				Thread.sleep(random.nextInt(Simulation.current().testLengthSeconds*1000));
 			} catch (InterruptedException e) {
 				e.printStackTrace();
 				throw new TestFailure("Button was Interrupted");
 			}
 			spawnAndPress();
 		}
+		Simulation.current().donePressing();
+	}
+	
+	/**
+	 * Virtual-clock counterpart of run(): schedules the same randomly spaced
+	 * presses as events on 'clock' instead of sleeping between them.
+	 */
+	final void schedule(VirtualClock clock) {
+		schedulePress(clock, Simulation.current().pressCount);
+	}
+	
+	private void schedulePress(final VirtualClock clock, final int remaining) {
+		if (remaining <= 0) {
+			Simulation.current().donePressing();
+			return;
+		}
+		clock.schedule(random.nextInt(Simulation.current().testLengthSeconds*1000), () -> {
+			spawnAndPress();
+			schedulePress(clock, remaining - 1);
+		});
 	}
 	
 	public void spawnAndPress() {
-		Person p = new Person(floor);
-		this.p.add(p);
+		spawnAndPress(random.nextInt(Simulation.current().numFloors));
+	}
+	
+	/**
+	 * Spawns someone on this floor going to 'destination' and presses the
+	 * button for them. The press is posted to the controller's HallCalls in
+	 * collective mode, and counted in its DemandMap when parking, here rather
+	 * than in the controller, so that both happen however the controller's
+	 * request() is written.
+	 */
+	final void spawnAndPress(int destination) {
+		Person p = new Person(floor, destination, this);
+		outstanding.incrementAndGet();
+		waiting[p.getDirection().ordinal()].incrementAndGet();
+		Simulation.current().spawned(p);
+		p.press();
+		if (control.demand != null)
+			control.demand.record(floor);
+		if (control.calls != null)
+			control.calls.post(floor, p.getDirection(), p);
 		press(p);
 	}
 	
 	@Override
 	public final String toString() {
-		return waiting() ? "waiting" : "";
+		boolean up = waiting(Direction.UP), down = waiting(Direction.DOWN);
+		return up && down ? "up/down" : up ? "up" : down ? "down" : "";
 	}
 	
 	public boolean waiting() {
-		for (Person p : p) {
-			if (p.waiting())
-				return true;
-		}
-		return false;
+		return waiting[0].get() + waiting[1].get() > 0;
+	}
+	
+	/**
+	 * @return true if someone on this floor is waiting to go 'direction'
+	 */
+	public boolean waiting(Direction direction) {
+		return waiting[direction.ordinal()].get() > 0;
 	}
 	
 	public boolean done() {
-		for (Person p : p) {
-			if (!p.isDone())
-				return false;
-		}
-		return true;
+		return outstanding.get() == 0;
+	}
+	
+	/**
+	 * Called as 'p', spawned here, boards an elevator.
+	 */
+	final void boarded(Person p) {
+		waiting[p.getDirection().ordinal()].decrementAndGet();
+	}
+	
+	/**
+	 * Called as someone spawned here gets off at their destination.
+	 */
+	final void retired() {
+		outstanding.decrementAndGet();
 	}
 	
 	/**
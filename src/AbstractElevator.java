@@ -1,3 +1,5 @@
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.concurrent.locks.ReentrantLock;
 
 
@@ -10,15 +12,17 @@ import java.util.concurrent.locks.ReentrantLock;
  * Lock provided
  * 
  */
-public abstract class AbstractElevator implements Runnable {
-	
-	private static char ID = 'A';
+public abstract class AbstractElevator implements Runnable, ElevatorView {
 	
 	protected ReentrantLock lock = new ReentrantLock();
 	protected Thread thread;
 	protected AbstractElevatorController control;
 	
-	private int floor;
+	/**
+	 * This elevator's slot in its controller's Fleet, which holds its floor.
+	 */
+	private final Fleet fleet;
+	private final int slot;
 	/**
 	 * The elevator will move towards this floor, so make sure to set it appropriately
 	 * in your concrete methods.
@@ -38,6 +42,17 @@ public abstract class AbstractElevator implements Runnable {
 	 * the printState method, so we recommend that you set this field appropriately.
 	 */
 	protected boolean carrying;
+	/**
+	 * The number of people this elevator can carry at once. Set from the 
+	 * simulation's 'capacity' parameter.
+	 */
+	public final int capacity;
+	/**
+	 * Everyone currently aboard, for elevators that carry more than one person.
+	 * Use load() and unload() rather than changing it directly; single-passenger
+	 * elevators can ignore it and keep using 'passenger'.
+	 */
+	protected final ArrayList<Person> manifest;
 
 	/**
 	 * Note that when extending this class, you will have to wrap this constructor.<br>
@@ -52,25 +67,154 @@ public abstract class AbstractElevator implements Runnable {
 	 * @param control the controller for this elevator
 	 * 
 	 */
+	@SuppressWarnings("this-escape") // the Fleet only keeps the reference
 	public AbstractElevator(AbstractElevatorController control) {
 		this.control = control;
-		this.targetFloor = this.floor = 0;
+		this.targetFloor = 0;
 		carrying = false;
 		passenger = null;
-		id = ID;
-		ID++;
+		capacity = Simulation.current().capacity;
+		manifest = new ArrayList<Person>(capacity);
+		id = Simulation.current().nextId();
+		fleet = control.fleet;
+		slot = fleet.add(this);
 	}
 	
+	public final char getId() {
+		return id;
+	}
 	public final int getFloor() {
-		return floor;
+		return fleet.getFloor(slot);
+	}
+	public final int getTargetFloor() {
+		return targetFloor;
+	}
+	public final int getCapacity() {
+		return capacity;
 	}
 	public final boolean isMoving() {
-		return floor != targetFloor;
+		return getFloor() != targetFloor;
+	}
+	/**
+	 * By default the way towards 'targetFloor'. Elevators that keep a
+	 * direction of travel between stops should override this.
+	 */
+	public Direction getDirection() {
+		int floor = getFloor();
+		return targetFloor == floor ? null : Direction.of(floor, targetFloor);
+	}
+	/**
+	 * By default 'capacity' less the people aboard while the elevator is
+	 * available. Elevators that take hails for more than one person at a
+	 * time should override this to count the people they are hailed for.
+	 */
+	public int getRoom() {
+		return isAvailable() ? Math.max(1, capacity - getLoad()) : 0;
+	}
+	/**
+	 * By default only 'targetFloor'. Elevators that plan several stops ahead
+	 * should override this, and getStops() to match.
+	 */
+	public boolean stopsAt(int floor) {
+		return floor == targetFloor;
+	}
+	/**
+	 * The floors stopsAt() is true for, sorted, for the Fleet to publish at
+	 * the end of each tick and after each hail, so that controllers can ask
+	 * without taking 'lock'. Called with 'lock' held. The array is kept as
+	 * published, so return a new one whenever the stops change. By default
+	 * only 'targetFloor'.
+	 */
+	protected int[] getStops() {
+		if (stops.length != 1 || stops[0] != targetFloor)
+			stops = new int[] { targetFloor };
+		return stops;
+	} private int[] stops = {};
+	/**
+	 * @return the number of people in 'manifest'
+	 */
+	public final int getLoad() {
+		return fleet.getLoad(slot);
 	}
+	/**
+	 * Copies this elevator's floor, target and load into 'into', read at once
+	 * without taking 'lock' (see Fleet).
+	 */
+	final void snapshot(int[] into) {
+		fleet.snapshot(slot, into);
+	}
+	
+	/**
+	 * Publishes this elevator's target, room and stops to its slot in the
+	 * Fleet, as the end of a tick does, so that a controller that has just
+	 * hailed it or taken a hail back sees the change at once.
+	 * 
+	 * @return true if that turned the elevator from busy to free
+	 */
+	final boolean publish() {
+		lock.lock();
+		try {
+			return fleet.publish(slot, targetFloor, getRoom(), getStops());
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Boards 'p' onto this elevator at the current floor and adds them to
+	 * 'manifest'. Person.board() checks the floor and the capacity.
+	 */
+	protected final void load(Person p) {
+		p.board(this);
+		manifest.add(p);
+		fleet.load(slot, manifest.size());
+		riders = manifest.toString();
+		carrying = true;
+	}
+	
+	/**
+	 * Lets off everyone in 'manifest' whose destination is the current floor.
+	 * 
+	 * @return the number of people who got off
+	 */
+	protected final int unload() {
+		int count = 0;
+		int floor = getFloor();
+		for (Iterator<Person> it = manifest.iterator(); it.hasNext();) {
+			Person p = it.next();
+			if (p.getDestination() == floor) {
+				p.exit();
+				it.remove();
+				count++;
+			}
+		}
+		fleet.load(slot, manifest.size());
+		riders = manifest.isEmpty() ? null : manifest.toString();
+		carrying = !manifest.isEmpty();
+		return count;
+	}
+	
+	/**
+	 * 'manifest' as text, made whenever it changes so that toString() can be
+	 * called from the monitor's thread without reading 'manifest' while a
+	 * tick changes it; null while it is empty.
+	 */
+	private volatile String riders = null;
+	
+	/**
+	 * Asks run() to signal the controller's 'elevatorFinished' condition once
+	 * this tick has let go of 'lock'. The hooks below run while 'lock' is held,
+	 * and a controller that holds its own lock while checking isAvailable()
+	 * would deadlock against a signal sent from inside them.
+	 */
+	protected final void finished() {
+		finished = true;
+	} private boolean finished = false;
 	
 	/**
 	 * This run() method will:
 	 * <ol>
+	 *  <li> call steer(), which may change targetFloor
 	 *  <li> move the elevator up or down towards the targetFloor. 
 	 *  <li> check if shouldPickUp()?
 	 *  	if yes, it will call pickUp()
@@ -78,39 +222,142 @@ public abstract class AbstractElevator implements Runnable {
 	 *  	if yes, it will call offload()
 	 *  <li> repeat
 	 *  </ol>
+	 * When the simulation's 'speed' is more than 1, a tick may move the
+	 * elevator several floors (see step()), and the checks are only made once
+	 * it has reached targetFloor.
 	 */
 	@Override
 	public final void run() {
 		if (ran)
 			throw new TestFailure("Elevator run() was called twice.");
 		ran = true;
-		int oldFloor = floor;
-		while (!Simulation.current.TERMINATE) {
-			try {
-				lock.lock();
-				validateFloor(oldFloor);
-				//if (id == 'A')
-				//	control.printState();
+		if (Simulation.current().clock != null || Simulation.current().ticks != null)
+			return; // ticks are scheduled by the virtual clock or the tick pool instead
+		while (!Simulation.current().TERMINATE) {
+			tick();
+			delay();
+		}
+	} private boolean ran = false;
+	
+	/**
+	 * One step of run(): moves the elevator a floor and calls the pickUp and
+	 * offload hooks. Runs on this elevator's thread normally, on the
+	 * simulation thread when the simulation uses a virtual clock, and on a
+	 * TickPool worker when it uses a tick pool. <br><br>
+	 *
+	 * With a 'speed' of more than 1 the elevator moves as far as step() lets
+	 * it, and the hooks only run on the tick it arrives at targetFloor (or
+	 * while it waits there): a stop is an event, and the floors passed on the
+	 * way are never checked, so a long run costs a few ticks rather than one
+	 * tick and one round of checks per floor.
+	 */
+	final void tick() {
+		try {
+			lock.lock();
+			validateFloor(oldFloor);
+			//if (id == 'A')
+			//	control.printState();
 
-				if (floor != targetFloor) { // move the elevator 1 floor
-					floor += (floor < targetFloor) ? 1 : -1;
-				}
+			steer();
+			Simulation s = Simulation.current();
+			int floor = getFloor();
+			if (floor != targetFloor) { // move the elevator 1 floor, or more at speed
+				int step = s.speed == 1 ? 1 : step(floor, s);
+				floor += (floor < targetFloor) ? step : -step;
+				fleet.move(slot, floor);
+				traveled += step;
+			}
+			if (floor == targetFloor)
+				velocity = 0;
 
+			if (s.speed == 1 || floor == targetFloor) {
 				if (shouldPickUp())
 					pickUp();
 				else if (shouldOffload())
 					offload();
+			}
 
-				oldFloor = floor;
-			} finally {
-				lock.unlock();
+			if (control.demand != null)
+				park();
+			oldFloor = floor;
+			freed = publish();
+			if (isMoving() != wasMoving) {
+				wasMoving = !wasMoving;
+				s.moving(wasMoving);
 			}
-			delay();
+		} finally {
+			lock.unlock();
 		}
-	} private boolean ran = false;
+		if (finished) {
+			finished = false;
+			control.freed(slot);
+		} else if (freed) {
+			control.available(slot);
+		}
+		freed = false;
+	} private int oldFloor = 0; private boolean wasMoving = false, freed = false;
+	
+	/**
+	 * How many floors to move this tick from 'floor' towards targetFloor:
+	 * 'acceleration' more than last tick, up to the simulation's 'speed', but
+	 * no more than lets the elevator slow down by 'acceleration' a tick and
+	 * stop on targetFloor. An elevator sent back the way it came, or to a
+	 * nearer floor than it can brake for, stops there at once and starts
+	 * again from rest.
+	 */
+	private int step(int floor, Simulation s) {
+		int heading = floor < targetFloor ? 1 : -1;
+		if (heading != this.heading) {
+			this.heading = heading;
+			velocity = 0;
+		}
+		int distance = Math.abs(targetFloor - floor);
+		int v = Math.min(Math.min(velocity + s.acceleration, s.speed), distance);
+		while (v > 1 && stopping(v, s.acceleration) > distance)
+			v--;
+		velocity = v;
+		return v;
+	} private int velocity = 0, heading = 0;
+	
+	/**
+	 * @return the floors covered by moving 'v' floors this tick, then
+	 * 'acceleration' fewer each tick until stopped
+	 */
+	private static long stopping(int v, int acceleration) {
+		long k = (v - 1) / acceleration;
+		return (k + 1) * v - acceleration * k * (k + 1) / 2;
+	}
+	
+	/**
+	 * Sends this elevator, if it is idle and at rest, to wait on the floor the
+	 * controller's DemandMap expects the next call from. Runs at the end of a
+	 * tick, after the hooks, so a car that has just been hailed to its own
+	 * floor boards its passenger before it could be sent away. The choice is
+	 * made again every DemandMap period while the car stays idle; a hail
+	 * simply replaces the parking target.
+	 */
+	private void park() {
+		if (passenger != null || carrying || !manifest.isEmpty() || !isAvailable()) {
+			parkedUntil = 0;
+			return;
+		}
+		long now = Simulation.nanoTime();
+		int floor = getFloor();
+		if (floor != targetFloor || now < parkedUntil || !Simulation.current().isPressing())
+			return;
+		parkedUntil = now + control.demand.getPeriod() * 1000000;
+		int park = control.demand.choose(fleet, slot, floor);
+		if (park >= 0)
+			targetFloor = park;
+	} private long parkedUntil = 0;
+	
+	/**
+	 * The number of floors this elevator has moved.
+	 */
+	volatile int traveled = 0;
 	
 	private final void validateFloor(int oldFloor) {
-		if (floor != oldFloor) {
+		if (getFloor() != oldFloor) {
 			throw new TestFailure("Elevators should "
 					+ "only be moved by the provided code. "
 					+ "Do not change 'floor'.");
@@ -119,7 +366,7 @@ public abstract class AbstractElevator implements Runnable {
 	
 	private final void delay() {
 		try {
-			Thread.sleep(Simulation.current.delayMilliseconds);
+			Thread.sleep(Simulation.current().delayMilliseconds);
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
@@ -127,6 +374,9 @@ public abstract class AbstractElevator implements Runnable {
 	
 	@Override
 	public final String toString() {
+		String riders = this.riders;
+		if (riders != null)
+			return id + riders + "->"+targetFloor;
 		return id + "(" + (carrying ? passenger : "") + ")->"+targetFloor;
 	}
 	
@@ -142,10 +392,42 @@ public abstract class AbstractElevator implements Runnable {
 	 */
 	public abstract void hail(int floor, Person p) throws OccupiedException;
 	
+	/**
+	 * The same as hail(floor, p), for a call from the 'direction' button on
+	 * 'floor'. The provided controllers hail through this method; by default
+	 * it ignores the direction and calls hail(floor, p).
+	 * 
+	 * @param floor where the elevator should go
+	 * @param direction the way 'p' is going from there
+	 * @param p the person that hailed the elevator
+	 * @throws OccupiedException if hailed but not available
+	 */
+	public void hail(int floor, Direction direction, Person p) throws OccupiedException {
+		hail(floor, p);
+	}
+	
+	/**
+	 * Takes back an earlier hail for 'p', so that the controller can hail a
+	 * better placed elevator for them instead. Must take 'lock', so that it
+	 * can not race with a tick picking 'p' up: either 'p' is still waiting
+	 * and this elevator forgets them, or they have boarded and nothing
+	 * changes. Elevators that do not support this keep the default, which
+	 * refuses.
+	 * 
+	 * @return true if the hail was taken back
+	 */
+	public boolean revoke(Person p) {
+		return false;
+	}
+	
 	/**
 	 * Construct and start the thread running this elevator. <br>
 	 * You must the provided 'thread' field. <br> <br>
 	 * 
+	 * Create the thread with Simulation.newThread(this) rather than
+	 * 'new Thread(this)', so that the elevator runs on a virtual thread
+	 * when the simulation is set up to use them. <br> <br>
+	 * 
 	 * Note: <br>
 	 * We recommend you write this method first, since it will make 
 	 * the other methods easier to visualize.
@@ -157,6 +439,14 @@ public abstract class AbstractElevator implements Runnable {
 	 */
 	public abstract boolean isAvailable();
 	
+	/**
+	 * Called by run() at the start of every tick, before the elevator moves.
+	 * Elevators that pick their own stops, rather than being hailed, can set
+	 * targetFloor here. Does nothing unless overridden.
+	 */
+	protected void steer() {
+	}
+	
 	/**
 	 * Make sure to call 'p's board method.
 	 * Elevator should start moving towards passenger's destination.
@@ -1,7 +1,7 @@
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.ReentrantLock;
 
 
@@ -24,14 +24,39 @@ public abstract class AbstractElevatorController implements Runnable {
 	 */
 	protected Set <AbstractElevator> elevators;
 	/**
-	 * Holds the floors whose buttons have been pressed.
+	 * Holds every button press, in order. request() adds to it, and 
+	 * 'floorQueue' and 'personQueue' take from it.
+	 */
+	protected final RequestQueue requests;
+	/**
+	 * The floor, target, load and availability of every elevator made for
+	 * this controller, in arrays indexed by slot (see Fleet).
+	 */
+	protected final Fleet fleet = new Fleet();
+	/**
+	 * Holds the floors whose buttons have been pressed. 
+	 * This is a view of 'requests'.
 	 */
 	protected Queue <Integer> floorQueue;
 	/**
-	 * Holds the people who have pressed the buttons.
+	 * Holds the people who have pressed the buttons, in the same order as
+	 * 'floorQueue'. This is a view of 'requests'.
 	 */
 	protected Queue <Person> personQueue;
 	
+	/**
+	 * The waiting hall calls when the simulation uses collective control, in
+	 * which case the buttons post presses here rather than into 'requests'.
+	 * Null otherwise.
+	 */
+	HallCalls calls;
+	
+	/**
+	 * Recent presses per floor, used to park idle elevators, when the
+	 * simulation has 'parking' set. Null otherwise.
+	 */
+	DemandMap demand;
+	
 	protected Thread thread;
 	/**
 	 * Used to wait for button presses.
@@ -51,13 +76,20 @@ public abstract class AbstractElevatorController implements Runnable {
 	 */
 	//AbstractButton[] buttons = new AbstractButton[Simulation.FLOORS];
 	
+	/**
+	 * The most button presses the ring of 'requests' holds before further
+	 * presses go to its overflow list.
+	 */
+	private static final int REQUEST_CAPACITY = 1 << 12;
+	
 	/**
 	 * Because this constructor does not take in any parameters, it is considered
 	 * the default constructor, so your implementation does not need to wrap it.
 	 */
 	public AbstractElevatorController() {
-		floorQueue = new LinkedBlockingQueue <Integer> ();
-		personQueue = new LinkedBlockingQueue <Person> ();
+		requests = new RequestQueue(REQUEST_CAPACITY);
+		floorQueue = requests.floors();
+		personQueue = requests.persons();
 		lock = new ReentrantLock();
 		buttonPressed = new Simulation.TestingCondition(lock.newCondition());
 		elevatorFinished = new Simulation.TestingCondition(lock.newCondition());
@@ -68,7 +100,7 @@ public abstract class AbstractElevatorController implements Runnable {
 	}
 	
 	public final void start() {
-		thread = new Thread(this);
+		thread = Simulation.newThread(this);
 		for (AbstractElevator e : elevators)
 			e.start();
 		thread.start();
@@ -84,11 +116,75 @@ public abstract class AbstractElevatorController implements Runnable {
 	 * @param p the person that requested the elevator
 	 */
 	public void request(int floor, Person p) {
-		floorQueue.add(floor);
-		personQueue.add(p);
-
+		request(floor, p.getDirection(), p);
 	}
 	
+	/**
+	 * The same as request(floor, p), for a press of the up or down button on
+	 * 'floor'. request(floor, p) calls this with the way 'p' is going, so a
+	 * controller that needs to see every press, with its direction, can
+	 * override this one instead.
+	 * 
+	 * @param floor the floor that requested the elevator
+	 * @param direction the button that was pressed
+	 * @param p the person that requested the elevator
+	 */
+	public void request(int floor, Direction direction, Person p) {
+		if (calls == null) // in collective mode the button has already posted the call
+			requests.offer(floor, direction, p);
+	}
+	
+	/**
+	 * Called by the elevator in 'slot' of 'fleet' after a tick in which it
+	 * called finished(), once it has let go of its lock. Signals
+	 * 'elevatorFinished'.
+	 */
+	void freed(int slot) {
+		lock.lock();
+		try {
+			elevatorFinished.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Called by the elevator in 'slot' of 'fleet' after a tick that turned it
+	 * from busy to free in the fleet without it calling finished(), once it
+	 * has let go of its lock. Does nothing: signalling 'elevatorFinished' is
+	 * up to the elevator, and the simulation checks that it happens. The
+	 * provided DispatchingController, which reads availability from the
+	 * fleet, overrides this to wake itself.
+	 */
+	void available(int slot) {
+	}
+	
+	/**
+	 * Waits until the controller has handled everything it has been given: it
+	 * must be parked in 'await' with nobody queued on its lock. A signalled
+	 * controller sits in the lock's queue until it gets the lock back, so
+	 * holding the lock and seeing an empty queue is enough to know that no
+	 * wakeup is still in flight. Gives up after a few seconds, leaving the
+	 * caller to find the controller busy.
+	 */
+	final void settle() {
+		long deadline = System.nanoTime() + SETTLE_NANOS;
+		while (!Simulation.current().TERMINATE && System.nanoTime() < deadline) {
+			if (!thread.isAlive())
+				throw new TestFailure("Controller Terminated Early.");
+			lock.lock();
+			try {
+				if (!lock.hasQueuedThreads()
+						&& thread.getState().equals(Thread.State.WAITING))
+					return;
+			} finally {
+				lock.unlock();
+			}
+			Thread.yield();
+		}
+	}
+	private static final long SETTLE_NANOS = 5000000000L;
+	
 	/**
 	 * Used to number the printState outputs.
 	 */
@@ -98,10 +194,18 @@ public abstract class AbstractElevatorController implements Runnable {
 	 * need to worry about this code
 	 */
 	public final void printState(AbstractButton[] buttons) {
+		printState(buttons, elevators);
+	}
+	
+	/**
+	 * Prints the state of 'elevators', which may belong to several
+	 * controllers, and the buttons.
+	 */
+	final void printState(AbstractButton[] buttons, Collection<AbstractElevator> elevators) {
 		
 		@SuppressWarnings("unchecked")
-		LinkedList<AbstractElevator>[] array = new LinkedList [Simulation.current.numFloors];
-		for (int i = 0; i < Simulation.current.numFloors; i++)
+		LinkedList<AbstractElevator>[] array = new LinkedList [Simulation.current().numFloors];
+		for (int i = 0; i < Simulation.current().numFloors; i++)
 			array[i]  = new LinkedList<AbstractElevator>();
 		
 		int longest = 0;
@@ -128,7 +232,7 @@ public abstract class AbstractElevatorController implements Runnable {
 		top += "+";
 		
 		System.out.println(top);
-		for (int i = Simulation.current.numFloors-1; i >= 0; i--) 
+		for (int i = Simulation.current().numFloors-1; i >= 0; i--) 
 			System.out.printf("| floor %2s: %7s\t%"+size+"s |\n", 
 					i+"", 
 					buttons[i], 
@@ -0,0 +1,302 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Microbenchmarks for the hot paths of the elevator system, so that changes
+ * to them can be measured with numbers rather than by watching printState
+ * frames. Each benchmark is run for every combination of floor and elevator
+ * counts, with a warmup before the measured iterations, and reports the time
+ * and the bytes allocated per operation (like JMH's '-prof gc'). <br><br>
+ *
+ * Run with the names of the benchmarks to run, or none to run them all:
+ * <pre>
+ * 	java Benchmarks request dispatch tick buttons
+ * </pre>
+ */
+public final class Benchmarks {
+
+	private static final int[] FLOORS = { 25, 250 };
+	private static final int[] ELEVATORS = { 5, 50 };
+	private static final int[] PRODUCERS = { 1, 4, 16 };
+	private static final int WARMUP_ITERATIONS = 5;
+	private static final int ITERATIONS = 10;
+
+	public static void main(String[] args) throws Exception {
+		boolean all = args.length == 0;
+		ArrayList<String> names = new ArrayList<String>();
+		for (String a : args)
+			names.add(a);
+		for (int floors : FLOORS) {
+			for (int elevators : ELEVATORS) {
+				Simulation.current = new Simulation(floors, elevators, 1, 1, 1);
+				if (all || names.contains("request"))
+					for (int producers : PRODUCERS) {
+						request(floors, elevators, producers, false);
+						request(floors, elevators, producers, true);
+					}
+				if (all || names.contains("dispatch"))
+					dispatch(floors, elevators);
+				if (all || names.contains("tick"))
+					tick(floors, elevators);
+				if (all || names.contains("buttons"))
+					buttons(floors, elevators);
+			}
+		}
+	}
+
+	/**
+	 * AbstractElevatorController.request() from 'producers' Button threads at
+	 * once, with the controller draining as fast as it can. With 'dispatching'
+	 * the controller is a DispatchingController, whose request() also wakes
+	 * run() (coalesced, see ChangeSet).
+	 */
+	private static void request(final int floors, int elevators, final int producers,
+			boolean dispatching) throws InterruptedException {
+		final int presses = 1 << 20;
+		final Person[] people = people(floors, 1024);
+		Result result = new Result("request", floors, elevators, "producers=" + producers
+				+ (dispatching ? " dispatching" : ""));
+		for (int it = 0; it < WARMUP_ITERATIONS + ITERATIONS; it++) {
+			final AbstractElevatorController control = dispatching
+					? new DispatchingController(DispatchStrategy.NEAREST_CAR) : new Idle();
+			final CountDownLatch start = new CountDownLatch(1);
+			final AtomicLong bytes = new AtomicLong();
+			Thread[] threads = new Thread[producers];
+			for (int t = 0; t < producers; t++) {
+				threads[t] = new Thread(() -> {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					long before = allocated(Thread.currentThread());
+					for (int i = 0; i < presses / producers; i++)
+						control.request(i % floors, people[i & 1023]);
+					// producers only; the records are made by the polling side
+					bytes.addAndGet(allocated(Thread.currentThread()) - before);
+				});
+				threads[t].start();
+			}
+			long begin = System.nanoTime();
+			start.countDown();
+			int taken = 0;
+			while (taken < presses / producers * producers)
+				if (control.requests.poll() != null)
+					taken++;
+			long time = System.nanoTime() - begin;
+			for (Thread t : threads)
+				t.join();
+			if (it >= WARMUP_ITERATIONS)
+				result.add(time, bytes.get(), taken);
+		}
+		result.print();
+	}
+
+	/**
+	 * DispatchingController.dispatch(): handing a burst of presses out to
+	 * cars that are always free, with each provided strategy.
+	 */
+	private static void dispatch(int floors, int elevators) {
+		Person[] people = people(floors, 1024);
+		for (String name : new String[] { "FIRST_FREE", "NEAREST_CAR", "ESTIMATED_ARRIVAL",
+				"SAME_DIRECTION", "DESTINATION", "MIN_COST" }) {
+			DispatchStrategy strategy = name.equals("FIRST_FREE") ? DispatchStrategy.FIRST_FREE
+					: name.equals("NEAREST_CAR") ? DispatchStrategy.NEAREST_CAR
+					: name.equals("ESTIMATED_ARRIVAL") ? DispatchStrategy.ESTIMATED_ARRIVAL
+					: name.equals("SAME_DIRECTION") ? DispatchStrategy.SAME_DIRECTION
+					: name.equals("DESTINATION") ? DispatchStrategy.DESTINATION
+					: DispatchStrategy.MIN_COST;
+			DispatchingController control = new DispatchingController(strategy);
+			for (int i = 0; i < elevators; i++)
+				control.cars.add(new Stub(control, floors));
+			Request[] burst = new Request[elevators * 4];
+			for (int i = 0; i < burst.length; i++)
+				burst[i] = new Request(i % floors, people[i & 1023], 0);
+			Result result = new Result("dispatch", floors, elevators, name);
+			for (int it = 0; it < WARMUP_ITERATIONS + ITERATIONS; it++) {
+				int hails = 0;
+				long bytes = allocated(Thread.currentThread());
+				long begin = System.nanoTime();
+				for (int round = 0; round < 200; round++) {
+					for (Request r : burst)
+						control.pending.add(r);
+					hails += control.dispatch();
+				}
+				long time = System.nanoTime() - begin;
+				if (it >= WARMUP_ITERATIONS)
+					result.add(time, allocated(Thread.currentThread()) - bytes, hails);
+			}
+			result.print();
+		}
+	}
+
+	/**
+	 * The locked section of AbstractElevator.run(), for every elevator in turn.
+	 */
+	private static void tick(int floors, int elevators) {
+		Idle control = new Idle();
+		Stub[] cars = new Stub[elevators];
+		for (int i = 0; i < elevators; i++)
+			cars[i] = new Stub(control, floors);
+		Result result = new Result("tick", floors, elevators, "");
+		for (int it = 0; it < WARMUP_ITERATIONS + ITERATIONS; it++) {
+			long bytes = allocated(Thread.currentThread());
+			long begin = System.nanoTime();
+			int ticks = 0;
+			for (int round = 0; round < 20000; round++) {
+				for (Stub car : cars)
+					car.tick();
+				ticks += elevators;
+			}
+			long time = System.nanoTime() - begin;
+			if (it >= WARMUP_ITERATIONS)
+				result.add(time, allocated(Thread.currentThread()) - bytes, ticks);
+		}
+		result.print();
+	}
+
+	/**
+	 * AbstractButton.waiting() and done() on every floor, with 'pressCount'
+	 * people spawned per floor.
+	 */
+	private static void buttons(int floors, int elevators) {
+		Idle control = new Idle();
+		for (int pressCount : new int[] { 2, 200 }) {
+			AbstractButton[] buttons = new AbstractButton[floors];
+			for (int f = 0; f < floors; f++) {
+				buttons[f] = new Silent(f, control);
+				for (int i = 0; i < pressCount; i++)
+					buttons[f].spawnAndPress();
+			}
+			Result result = new Result("buttons", floors, elevators, "pressCount=" + pressCount);
+			boolean sink = false;
+			for (int it = 0; it < WARMUP_ITERATIONS + ITERATIONS; it++) {
+				long bytes = allocated(Thread.currentThread());
+				long begin = System.nanoTime();
+				int checks = 0;
+				for (int round = 0; round < 2000; round++) {
+					for (AbstractButton b : buttons)
+						sink ^= b.waiting() ^ b.done();
+					checks += floors;
+				}
+				long time = System.nanoTime() - begin;
+				if (it >= WARMUP_ITERATIONS)
+					result.add(time, allocated(Thread.currentThread()) - bytes, checks);
+			}
+			result.print();
+			if (sink)
+				System.out.print("");
+		}
+	}
+
+	private static Person[] people(int floors, int count) {
+		Person[] people = new Person[count];
+		for (int i = 0; i < count; i++)
+			people[i] = new Person(i % floors);
+		return people;
+	}
+
+	/**
+	 * @return the bytes 't' has allocated so far, or 0 where the JVM cannot say
+	 */
+	@SuppressWarnings("deprecation") // Thread.threadId() only exists from Java 19
+	private static long allocated(Thread t) {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(t.getId());
+		return 0;
+	}
+
+	/**
+	 * Sums the measured iterations of one benchmark and prints them as one line.
+	 */
+	private static final class Result {
+		private final String line;
+		private long nanos = 0, bytes = 0, ops = 0;
+
+		Result(String name, int floors, int elevators, String params) {
+			line = String.format("%-9s floors=%-4d elevators=%-3d %-26s", name, floors, elevators, params);
+		}
+
+		void add(long nanos, long bytes, long ops) {
+			this.nanos += nanos;
+			this.bytes += bytes;
+			this.ops += ops;
+		}
+
+		void print() {
+			System.out.printf("%s %10.1f ns/op %12.0f ops/s %8.1f B/op\n", line,
+					(double) nanos / ops, ops * 1e9 / nanos, (double) bytes / ops);
+		}
+	}
+
+	/**
+	 * A controller whose presses are taken off by the benchmark itself.
+	 */
+	private static final class Idle extends AbstractElevatorController {
+		@Override
+		public void run() {
+		}
+	}
+
+	/**
+	 * A button that spawns people without telling anyone.
+	 */
+	private static final class Silent extends AbstractButton {
+		Silent(int floor, AbstractElevatorController control) {
+			super(floor, control);
+		}
+
+		@Override
+		protected void press(Person p) {
+		}
+	}
+
+	/**
+	 * A car that accepts every hail and shuttles between the bottom and top
+	 * floors, stopping at each end.
+	 */
+	private static final class Stub extends AbstractElevator {
+		private final int top;
+
+		Stub(AbstractElevatorController control, int floors) {
+			super(control);
+			top = floors - 1;
+		}
+
+		@Override
+		public void hail(int floor, Person p) {
+		}
+
+		@Override
+		public void start() {
+		}
+
+		@Override
+		public boolean isAvailable() {
+			return true;
+		}
+
+		@Override
+		protected void pickUp() {
+		}
+
+		@Override
+		protected boolean shouldPickUp() {
+			return false;
+		}
+
+		@Override
+		protected void offload() {
+			targetFloor = getFloor() == 0 ? top : 0;
+		}
+
+		@Override
+		protected boolean shouldOffload() {
+			return !isMoving();
+		}
+	}
+
+}
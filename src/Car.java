@@ -0,0 +1,217 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * A provided elevator that carries up to 'capacity' people at once. The
+ * simulation uses it in place of Elevator when 'capacity' is more than one.
+ * <br><br>
+ *
+ * Hails are accepted while there is room, counting both the people aboard and
+ * the people it has been hailed for but not yet picked up. The car visits its
+ * stops (pickup floors and the destinations of its riders) in the current
+ * direction of travel before turning around, and at every stop lets riders off
+ * before boarding anyone waiting there.
+ */
+public class Car extends AbstractElevator {
+
+	/**
+	 * People this car has been hailed for but has not picked up yet.
+	 */
+	protected final ArrayList<Person> booked = new ArrayList<Person>();
+	/**
+	 * +1 while heading up, -1 while heading down, 0 when idle.
+	 */
+	private int direction = 0;
+	/**
+	 * Where the booked people are waiting and where they and the riders are
+	 * going, sorted and without repeats; replaced by plan().
+	 */
+	private int[] stops = {};
+
+	public Car(AbstractElevatorController control) {
+		super(control);
+	}
+
+	@Override
+	public void hail(int floor, Person p) throws OccupiedException {
+		lock.lock();
+		try {
+			if (manifest.size() + booked.size() >= capacity)
+				throw new OccupiedException("" + id);
+			booked.add(p);
+			p.hail();
+			plan();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int getRoom() {
+		lock.lock();
+		try {
+			return Math.max(0, capacity - manifest.size() - booked.size());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The car stops where its booked people are waiting and where they and
+	 * its riders are going.
+	 */
+	@Override
+	public boolean stopsAt(int floor) {
+		lock.lock();
+		try {
+			return Arrays.binarySearch(stops, floor) >= 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	protected int[] getStops() {
+		return stops;
+	}
+
+	@Override
+	public Direction getDirection() {
+		lock.lock();
+		try {
+			return direction > 0 ? Direction.UP : direction < 0 ? Direction.DOWN : null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Forgets 'p' if they have not been picked up yet, and plans again without
+	 * their floor.
+	 */
+	@Override
+	public boolean revoke(Person p) {
+		lock.lock();
+		try {
+			if (!booked.remove(p))
+				return false;
+			plan();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void start() {
+		thread = Simulation.newThread(this);
+		thread.start();
+	}
+
+	@Override
+	public boolean isAvailable() {
+		lock.lock();
+		try {
+			return manifest.size() + booked.size() < capacity;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	protected boolean shouldPickUp() {
+		for (Person p : booked)
+			if (p.getStartingFloor() == getFloor())
+				return true;
+		return false;
+	}
+
+	@Override
+	protected void pickUp() {
+		serve();
+	}
+
+	@Override
+	protected boolean shouldOffload() {
+		for (Person p : manifest)
+			if (p.getDestination() == getFloor())
+				return true;
+		return false;
+	}
+
+	@Override
+	protected void offload() {
+		serve();
+	}
+
+	/**
+	 * Lets off riders for this floor, boards anyone booked here, and picks the
+	 * next stop. The controller is told when room has opened up.
+	 */
+	private void serve() {
+		boolean freed = unload() > 0;
+		for (Iterator<Person> it = booked.iterator(); it.hasNext();) {
+			Person p = it.next();
+			if (p.getStartingFloor() == getFloor()) {
+				it.remove();
+				load(p);
+			}
+		}
+		plan();
+		if (freed)
+			finished();
+	}
+
+	/**
+	 * Sets 'targetFloor' to the nearest stop in the current direction of travel,
+	 * turning around only when there is nothing left ahead (LOOK). Stops on the
+	 * current floor are left to the pickUp and offload hooks. Also gathers
+	 * 'stops' afresh.
+	 */
+	private void plan() {
+		int floor = getFloor();
+		int above = Integer.MAX_VALUE, below = Integer.MIN_VALUE;
+		for (Person p : booked) {
+			int stop = p.getStartingFloor();
+			if (stop > floor && stop < above)
+				above = stop;
+			if (stop < floor && stop > below)
+				below = stop;
+		}
+		for (Person p : manifest) {
+			int stop = p.getDestination();
+			if (stop > floor && stop < above)
+				above = stop;
+			if (stop < floor && stop > below)
+				below = stop;
+		}
+		boolean up = above != Integer.MAX_VALUE, down = below != Integer.MIN_VALUE;
+		if (up && (direction >= 0 || !down))
+			direction = 1;
+		else if (down)
+			direction = -1;
+		else
+			direction = 0;
+		targetFloor = direction > 0 ? above : direction < 0 ? below : floor;
+		collectStops();
+	}
+
+	private void collectStops() {
+		int[] all = new int[2 * booked.size() + manifest.size()];
+		int n = 0;
+		for (Person p : booked) {
+			all[n++] = p.getStartingFloor();
+			all[n++] = p.getDestination();
+		}
+		for (Person p : manifest)
+			all[n++] = p.getDestination();
+		Arrays.sort(all);
+		int distinct = 0;
+		for (int i = 0; i < n; i++)
+			if (distinct == 0 || all[i] != all[distinct - 1])
+				all[distinct++] = all[i];
+		stops = distinct == all.length ? all : Arrays.copyOf(all, distinct);
+	}
+
+}
@@ -0,0 +1,112 @@
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Which floors (or cars) have changed since a controller last looked, and a
+ * wakeup for the controller that is coalesced over all of them. <br><br>
+ *
+ * mark() sets the bit of whatever changed, without locking. Only the first
+ * mark after the controller's last take() then takes the controller's lock
+ * and signals its condition; every other mark before the next take() finds
+ * the wakeup already owed and returns at once. So a burst of a thousand
+ * presses costs the controller one wakeup and one lock handoff rather than
+ * a thousand. take() hands back the indices marked since the last one;
+ * where the changes already reach the controller some other way, wake()
+ * alone gives the coalesced wakeup and records nothing. <br><br>
+ *
+ * The controller must call take() while holding the lock and before it
+ * looks for work, and only then await: take() re-arms the wakeup first, so
+ * a mark made at any point after it either shows up in the controller's
+ * look or signals it once it awaits. The condition is still signalled with
+ * signalAll(), so Simulation's checks see the usual await/signal pattern.
+ */
+public final class ChangeSet {
+
+	private final AtomicLongArray bits;
+	private final int size;
+	private final AtomicBoolean owed = new AtomicBoolean();
+	private final ReentrantLock lock;
+	private final Simulation.TestingCondition condition;
+
+	/**
+	 * @param size the number of indices
+	 * @param lock the lock of the controller to wake
+	 * @param condition the condition it waits on for these changes
+	 */
+	public ChangeSet(int size, ReentrantLock lock, Simulation.TestingCondition condition) {
+		this.size = Math.max(1, size);
+		bits = new AtomicLongArray((this.size + 63) >> 6);
+		this.lock = lock;
+		this.condition = condition;
+	}
+
+	/**
+	 * Records that 'index' has changed and wakes the controller, unless a
+	 * wakeup is already on its way. Indices past the size wake the
+	 * controller without being recorded.
+	 */
+	public void mark(int index) {
+		if (index >= 0 && index < size) {
+			int w = index >> 6;
+			long bit = 1L << index;
+			long old;
+			do {
+				old = bits.get(w);
+			} while ((old & bit) == 0 && !bits.compareAndSet(w, old, old | bit));
+		}
+		wake();
+	}
+
+	/**
+	 * Wakes the controller, unless a wakeup is already on its way, without
+	 * recording a change.
+	 */
+	public void wake() {
+		if (owed.get() || !owed.compareAndSet(false, true))
+			return;
+		lock.lock();
+		try {
+			condition.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Re-arms the wakeup, then moves the indices changed since the last call
+	 * into 'out' in increasing order and clears them. Indices that do not fit
+	 * in 'out' stay marked for the next call.
+	 *
+	 * @return the number of indices written to 'out'
+	 */
+	public int take(int[] out) {
+		owed.set(false);
+		int n = 0;
+		for (int w = 0; w < bits.length() && n < out.length; w++) {
+			if (bits.get(w) == 0)
+				continue;
+			long taken = bits.getAndSet(w, 0);
+			while (taken != 0 && n < out.length) {
+				int b = Long.numberOfTrailingZeros(taken);
+				out[n++] = (w << 6) + b;
+				taken &= taken - 1;
+			}
+			if (taken != 0) { // no room left; put the rest back
+				long old;
+				do {
+					old = bits.get(w);
+				} while (!bits.compareAndSet(w, old, old | taken));
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return the number of indices
+	 */
+	public int size() {
+		return size;
+	}
+
+}
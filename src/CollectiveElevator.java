@@ -0,0 +1,158 @@
+import java.util.ArrayList;
+
+/**
+ * A provided elevator for collective control, used in place of Elevator when
+ * the simulation's 'collective' field is set. <br><br>
+ *
+ * Collective cars are never hailed. Presses go into the controller's
+ * HallCalls instead, and every car sweeps in one direction, stopping at each
+ * floor along the way where someone has called to go the same way (while it
+ * has room) or a rider is getting off, and turns around only when there is
+ * nothing further ahead (LOOK). Calls the other way are passed by and taken
+ * on the way back; the farthest of them ahead is where the sweep turns.
+ * steer() picks the next stop each tick, and the usual shouldPickUp/pickUp
+ * and shouldOffload/offload hooks do the boarding and exiting.
+ */
+public class CollectiveElevator extends AbstractElevator {
+
+	private final HallCalls calls;
+	private final ArrayList<Person> boarding = new ArrayList<Person>();
+	/**
+	 * +1 while sweeping up, -1 while sweeping down, 0 when idle.
+	 */
+	private int direction = 0;
+
+	public CollectiveElevator(AbstractElevatorController control) {
+		super(control);
+		calls = control.calls;
+	}
+
+	@Override
+	public void hail(int floor, Person p) throws OccupiedException {
+		throw new OccupiedException(id + " takes its calls from HallCalls");
+	}
+
+	@Override
+	public void start() {
+		thread = Simulation.newThread(this);
+		thread.start();
+	}
+
+	@Override
+	public boolean isAvailable() {
+		return false;
+	}
+
+	@Override
+	public Direction getDirection() {
+		return direction > 0 ? Direction.UP : direction < 0 ? Direction.DOWN : null;
+	}
+
+	@Override
+	protected void steer() {
+		int floor = getFloor();
+		boolean room = manifest.size() < capacity;
+		// the next stop each way: riders getting off, calls going the same way,
+		// or failing those the farthest call going back, where the sweep turns
+		int above = room ? calls.nextAbove(floor, Direction.UP) : -1;
+		int below = room ? calls.nextBelow(floor, Direction.DOWN) : -1;
+		for (Person p : manifest) {
+			int stop = p.getDestination();
+			if (stop > floor && (above < 0 || stop < above))
+				above = stop;
+			if (stop < floor && stop > below)
+				below = stop;
+		}
+		if (above < 0 && room) {
+			int top = calls.nextBelow(Integer.MAX_VALUE, Direction.DOWN);
+			above = top > floor ? top : -1;
+		}
+		if (below < 0 && room) {
+			int bottom = calls.nextAbove(-1, Direction.UP);
+			below = bottom >= 0 && bottom < floor ? bottom : -1;
+		}
+		if (above >= 0 && (direction >= 0 || below < 0))
+			direction = 1;
+		else if (below >= 0)
+			direction = -1;
+		else
+			direction = 0;
+		if (shouldOffload() || boards() != null)
+			targetFloor = floor;
+		else
+			targetFloor = direction > 0 ? above : direction < 0 ? below : floor;
+	}
+
+	/**
+	 * @return which of this floor's calls the car would take now: those going
+	 * its way, or either way if it has nothing further ahead; null if none
+	 */
+	private Direction boards() {
+		int floor = getFloor();
+		if (manifest.size() >= capacity)
+			return null;
+		Direction way = getDirection();
+		if (way != null && calls.isCalled(floor, way))
+			return way;
+		if (way != null && ahead(floor, way))
+			return null;
+		// turning around, or idle: take whoever is here, the way back first
+		Direction back = way == Direction.UP ? Direction.DOWN : Direction.UP;
+		if (calls.isCalled(floor, back))
+			return back;
+		return way == null && calls.isCalled(floor, Direction.DOWN) ? Direction.DOWN : null;
+	}
+
+	/**
+	 * @return true if there is a call or a rider's stop beyond 'floor' going
+	 * 'way'
+	 */
+	private boolean ahead(int floor, Direction way) {
+		if ((way == Direction.UP ? calls.nextAbove(floor) : calls.nextBelow(floor)) >= 0)
+			return true;
+		for (Person p : manifest)
+			if (p.getDestination() != floor && way.reaches(floor, p.getDestination()))
+				return true;
+		return false;
+	}
+
+	@Override
+	protected boolean shouldPickUp() {
+		return boards() != null;
+	}
+
+	@Override
+	protected void pickUp() {
+		serve();
+	}
+
+	@Override
+	protected boolean shouldOffload() {
+		for (Person p : manifest)
+			if (p.getDestination() == getFloor())
+				return true;
+		return false;
+	}
+
+	@Override
+	protected void offload() {
+		serve();
+	}
+
+	/**
+	 * Lets off riders for this floor, then boards as many of the callers
+	 * going its way as there is room for.
+	 */
+	private void serve() {
+		unload();
+		Direction way = boards();
+		if (way != null)
+			calls.take(getFloor(), way, capacity - manifest.size(), boarding);
+		for (Person p : boarding) {
+			p.hail();
+			load(p);
+		}
+		boarding.clear();
+	}
+
+}
@@ -0,0 +1,109 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A per-floor heatmap of recent button presses, used to park idle elevators
+ * where the next calls are likely to come from when the simulation's
+ * 'parking' field is set. <br><br>
+ *
+ * Each floor keeps a call rate that halves every 'halfLife' milliseconds and
+ * goes up by one with every press, so a burst of morning lobby traffic fades
+ * out over the following minutes. The rate and the time it was last updated
+ * are packed into one long per floor (the time in the high half, the rate as
+ * a float in the low half), so that a press updates both with a single
+ * compare-and-set and Buttons never block one another.
+ */
+public final class DemandMap {
+
+	/**
+	 * Floors hotter than this are worth driving an idle car to.
+	 */
+	private static final double MIN_RATE = 0.5;
+
+	private final AtomicLongArray cells;
+	private final double halfLife;
+	private final long start;
+
+	/**
+	 * @param floors the number of floors
+	 * @param halfLife how long, in (simulated) milliseconds, it takes a floor's
+	 * rate to halve
+	 */
+	public DemandMap(int floors, long halfLife) {
+		cells = new AtomicLongArray(floors);
+		this.halfLife = halfLife;
+		start = Simulation.nanoTime();
+		for (int f = 0; f < floors; f++)
+			cells.set(f, pack(0, 0f));
+	}
+
+	/**
+	 * Counts a press on 'floor'. Safe to call from any number of threads.
+	 */
+	public void record(int floor) {
+		int now = now();
+		long cell, next;
+		do {
+			cell = cells.get(floor);
+			next = pack(now, (float) (decay(cell, now) + 1));
+		} while (!cells.compareAndSet(floor, cell, next));
+	}
+
+	/**
+	 * @return the current, decayed call rate of 'floor'
+	 */
+	public double get(int floor) {
+		return decay(cells.get(floor), now());
+	}
+
+	/**
+	 * @return how long an idle car should stay at its chosen floor before
+	 * choosing again, in milliseconds
+	 */
+	long getPeriod() {
+		return (long) (halfLife / 8);
+	}
+
+	/**
+	 * Picks a floor for the idle car in 'slot' of 'fleet', which is on 'from',
+	 * to wait at: the hottest floor that no other free car is already on or
+	 * heading to, the nearest of those on a tie.
+	 *
+	 * @return that floor, or -1 if no floor is hot enough to be worth it
+	 */
+	int choose(Fleet fleet, int slot, int from) {
+		int floors = cells.length();
+		boolean[] covered = new boolean[floors];
+		for (int i = 0; i < fleet.size(); i++)
+			if (i != slot && fleet.isFree(i))
+				covered[fleet.getTargetFloor(i)] = true;
+		int now = now();
+		int best = -1;
+		double bestRate = MIN_RATE;
+		for (int f = 0; f < floors; f++) {
+			if (covered[f])
+				continue;
+			double rate = decay(cells.get(f), now);
+			if (rate > bestRate || (rate == bestRate && best >= 0
+					&& Math.abs(f - from) < Math.abs(best - from))) {
+				best = f;
+				bestRate = rate;
+			}
+		}
+		return best;
+	}
+
+	private int now() {
+		return (int) ((Simulation.nanoTime() - start) / 1000000);
+	}
+
+	private double decay(long cell, int now) {
+		float rate = Float.intBitsToFloat((int) cell);
+		int then = (int) (cell >>> 32);
+		return rate == 0 ? 0 : rate * Math.pow(2, -(now - then) / halfLife);
+	}
+
+	private static long pack(int time, float rate) {
+		return ((long) time << 32) | (Float.floatToRawIntBits(rate) & 0xFFFFFFFFL);
+	}
+
+}
@@ -0,0 +1,32 @@
+/**
+ * The way someone wants to go from the floor they called from: the up or the
+ * down hall-call button of that floor. Also the way an elevator is travelling
+ * (see ElevatorView.getDirection()).
+ */
+public enum Direction {
+	UP, DOWN;
+
+	/**
+	 * @return the button someone on 'floor' going to 'destination' presses.
+	 * Someone staying on their floor counts as going up.
+	 */
+	public static Direction of(int floor, int destination) {
+		return destination < floor ? DOWN : UP;
+	}
+
+	/**
+	 * @return +1 for UP, -1 for DOWN
+	 */
+	public int sign() {
+		return this == UP ? 1 : -1;
+	}
+
+	/**
+	 * @return true if a car on 'from' going this way will pass (or is at)
+	 * 'floor'
+	 */
+	public boolean reaches(int from, int floor) {
+		return this == UP ? floor >= from : floor <= from;
+	}
+
+}
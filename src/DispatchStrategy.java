@@ -0,0 +1,340 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decides which car serves which button press. The DispatchingController
+ * calls it with every press still waiting for a car and a read-only view of
+ * every car, so a dispatch policy can be swapped without touching any of the
+ * controller's threading code. <br><br>
+ *
+ * Six policies are provided: FIRST_FREE, NEAREST_CAR, ESTIMATED_ARRIVAL,
+ * SAME_DIRECTION, DESTINATION and MIN_COST.
+ */
+public interface DispatchStrategy {
+
+	/**
+	 * Pairs waiting presses with cars. Each car may be given up to
+	 * ElevatorView.getRoom() presses per call, which is one for a car that
+	 * carries one person; the controller calls again while presses are still
+	 * being handed out, so policies that give a car one press at a time still
+	 * fill cars with room for more people over several calls.
+	 *
+	 * @param pending the presses waiting for a car, oldest first
+	 * @param cars every car in the building
+	 * @param choice one entry per press in 'pending', filled with -1. Set an
+	 * entry to the index in 'cars' of the car to hail for that press, or leave
+	 * it at -1 to keep the press waiting.
+	 */
+	void assign(List<Request> pending, List<? extends ElevatorView> cars, int[] choice);
+
+	/**
+	 * The same as assign(pending, cars, choice), also given the Fleet that
+	 * keeps the cars' state, where slot i is cars.get(i) and 'cars' are the
+	 * fleet's views, which read it without the cars' locks. A policy that
+	 * scans every car for every press can search the fleet directly instead
+	 * of calling each view; it should claim() each car it picks there. The
+	 * controller's hail confirms the choice. By default the fleet is ignored.
+	 */
+	default void assign(List<Request> pending, Fleet fleet, List<? extends ElevatorView> cars,
+			int[] choice) {
+		assign(pending, cars, choice);
+	}
+
+	/**
+	 * Oldest press first, to the first available car.
+	 */
+	DispatchStrategy FIRST_FREE = new FirstFree();
+	/**
+	 * Oldest press first, to the closest available car. Searches the Fleet
+	 * when given one.
+	 */
+	DispatchStrategy NEAREST_CAR = new NearestCar();
+	/**
+	 * Oldest press first, to the car that can get there soonest. If that is a
+	 * busy car, the press waits for it rather than taking a slower free car.
+	 */
+	DispatchStrategy ESTIMATED_ARRIVAL = new EstimatedArrival();
+	/**
+	 * Oldest press first, to the closest available car that is either idle
+	 * or already travelling the way the press is going and has not passed its
+	 * floor. A press no such car can take waits, so cars are never sent
+	 * against their direction of travel.
+	 */
+	DispatchStrategy SAME_DIRECTION = new SameDirection();
+	/**
+	 * Destination dispatch, for cars that carry several people: presses are
+	 * grouped by where they are going. Each press, oldest first, goes to the
+	 * car heading its way that it adds the fewest new stops to, nearest
+	 * first, so riders for the same or nearby floors share a car. A car may
+	 * be given several presses in one call, up to its room.
+	 */
+	DispatchStrategy DESTINATION = new Destination();
+	/**
+	 * Batch dispatch: the oldest presses, one per available car, are paired
+	 * with the available cars all at once so that the total estimated pickup
+	 * time (see eta()) is as small as possible, by the Hungarian method. A
+	 * burst of presses is spread over the cars instead of each press taking
+	 * whichever car is nearest to it alone.
+	 */
+	DispatchStrategy MIN_COST = new MinCost();
+
+	/**
+	 * @return about how many ticks 'car' would take to reach 'floor' if it
+	 * finished its current trip first
+	 */
+	static int eta(ElevatorView car, int floor) {
+		return Math.abs(car.getFloor() - car.getTargetFloor())
+				+ Math.abs(car.getTargetFloor() - floor);
+	}
+
+	final class FirstFree implements DispatchStrategy {
+		@Override
+		public void assign(List<Request> pending, List<? extends ElevatorView> cars, int[] choice) {
+			int next = 0;
+			for (int i = 0; i < pending.size(); i++) {
+				while (next < cars.size() && !cars.get(next).isAvailable())
+					next++;
+				if (next == cars.size())
+					return;
+				choice[i] = next++;
+			}
+		}
+	}
+
+	final class NearestCar implements DispatchStrategy {
+		@Override
+		public void assign(List<Request> pending, List<? extends ElevatorView> cars, int[] choice) {
+			boolean[] taken = new boolean[cars.size()];
+			for (int i = 0; i < pending.size(); i++) {
+				int floor = pending.get(i).floor;
+				int best = -1, bestDistance = Integer.MAX_VALUE;
+				for (int c = 0; c < cars.size(); c++) {
+					if (taken[c] || !cars.get(c).isAvailable())
+						continue;
+					int distance = Math.abs(cars.get(c).getFloor() - floor);
+					if (distance < bestDistance) {
+						best = c;
+						bestDistance = distance;
+					}
+				}
+				if (best < 0)
+					return;
+				choice[i] = best;
+				taken[best] = true;
+			}
+		}
+
+		@Override
+		public void assign(List<Request> pending, Fleet fleet, List<? extends ElevatorView> cars,
+				int[] choice) {
+			for (int i = 0; i < pending.size(); i++) {
+				int best = fleet.nearestFree(pending.get(i).floor);
+				if (best < 0)
+					return;
+				fleet.claim(best);
+				choice[i] = best;
+			}
+		}
+	}
+
+	final class SameDirection implements DispatchStrategy {
+		@Override
+		public void assign(List<Request> pending, List<? extends ElevatorView> cars, int[] choice) {
+			boolean[] taken = new boolean[cars.size()];
+			for (int i = 0; i < pending.size(); i++) {
+				Request r = pending.get(i);
+				int best = -1, bestDistance = Integer.MAX_VALUE;
+				for (int c = 0; c < cars.size(); c++) {
+					ElevatorView car = cars.get(c);
+					if (taken[c] || !car.isAvailable())
+						continue;
+					Direction way = car.getDirection();
+					if (way != null && (way != r.direction || !way.reaches(car.getFloor(), r.floor)))
+						continue;
+					int distance = Math.abs(car.getFloor() - r.floor);
+					if (distance < bestDistance) {
+						best = c;
+						bestDistance = distance;
+					}
+				}
+				if (best < 0)
+					continue; // a later press may be going another car's way
+				choice[i] = best;
+				taken[best] = true;
+			}
+		}
+	}
+
+	final class MinCost implements DispatchStrategy {
+		@Override
+		public void assign(List<Request> pending, List<? extends ElevatorView> cars, int[] choice) {
+			int[] free = new int[cars.size()];
+			int m = 0;
+			for (int c = 0; c < cars.size(); c++)
+				if (cars.get(c).isAvailable())
+					free[m++] = c;
+			int n = Math.min(pending.size(), m);
+			if (n == 0)
+				return;
+			int[][] cost = new int[n][m];
+			for (int i = 0; i < n; i++)
+				for (int j = 0; j < m; j++)
+					cost[i][j] = eta(cars.get(free[j]), pending.get(i).floor);
+			int[] match = hungarian(cost, n, m);
+			for (int i = 0; i < n; i++)
+				choice[i] = free[match[i]];
+		}
+
+		/**
+		 * Solves the assignment problem for 'n' rows and 'm' >= 'n' columns
+		 * in O(n * n * m), with row and column potentials (the Hungarian
+		 * method as a series of shortest augmenting paths).
+		 *
+		 * @return the column given to each row, minimising the total cost
+		 */
+		static int[] hungarian(int[][] cost, int n, int m) {
+			// 1-based, with row 0 and column 0 as the virtual start
+			long[] u = new long[n + 1], v = new long[m + 1], least = new long[m + 1];
+			int[] row = new int[m + 1], way = new int[m + 1];
+			boolean[] used = new boolean[m + 1];
+			for (int i = 1; i <= n; i++) {
+				row[0] = i;
+				int j0 = 0;
+				Arrays.fill(least, Long.MAX_VALUE);
+				Arrays.fill(used, false);
+				do {
+					used[j0] = true;
+					int i0 = row[j0], j1 = 0;
+					long delta = Long.MAX_VALUE;
+					for (int j = 1; j <= m; j++) {
+						if (used[j])
+							continue;
+						long reduced = cost[i0 - 1][j - 1] - u[i0] - v[j];
+						if (reduced < least[j]) {
+							least[j] = reduced;
+							way[j] = j0;
+						}
+						if (least[j] < delta) {
+							delta = least[j];
+							j1 = j;
+						}
+					}
+					for (int j = 0; j <= m; j++) {
+						if (used[j]) {
+							u[row[j]] += delta;
+							v[j] -= delta;
+						} else {
+							least[j] -= delta;
+						}
+					}
+					j0 = j1;
+				} while (row[j0] != 0);
+				do { // flip the augmenting path
+					int j1 = way[j0];
+					row[j0] = row[j1];
+					j0 = j1;
+				} while (j0 != 0);
+			}
+			int[] match = new int[n];
+			for (int j = 1; j <= m; j++)
+				if (row[j] != 0)
+					match[row[j] - 1] = j - 1;
+			return match;
+		}
+	}
+
+	final class Destination implements DispatchStrategy {
+		/**
+		 * What one more stop is taken to cost, in floors of travel.
+		 */
+		private static final int STOP_COST = 4;
+
+		@Override
+		public void assign(List<Request> pending, List<? extends ElevatorView> cars, int[] choice) {
+			int n = cars.size();
+			int[] room = new int[n];
+			int[] way = new int[n];
+			for (int c = 0; c < n; c++) {
+				ElevatorView car = cars.get(c);
+				room[c] = car.getRoom();
+				Direction d = car.getDirection();
+				way[c] = d == null ? 0 : d.sign();
+			}
+			// the stops handed out by this call, which the cars can not report
+			// yet, as a list per car threaded through 'next'
+			int[] head = new int[n];
+			Arrays.fill(head, -1);
+			int[] stop = new int[2 * pending.size()];
+			int[] next = new int[2 * pending.size()];
+			int stops = 0;
+			for (int i = 0; i < pending.size(); i++) {
+				Request r = pending.get(i);
+				int best = -1, bestCost = Integer.MAX_VALUE;
+				for (int c = 0; c < n; c++) {
+					if (room[c] == 0)
+						continue;
+					ElevatorView car = cars.get(c);
+					if (way[c] != 0 && (way[c] != r.direction.sign()
+							|| !r.direction.reaches(car.getFloor(), r.floor)))
+						continue;
+					int cost = Math.abs(car.getFloor() - r.floor)
+							+ (stopsAt(car, c, r.floor, head, stop, next) ? 0 : STOP_COST)
+							+ (stopsAt(car, c, r.destination, head, stop, next) ? 0 : STOP_COST);
+					if (cost < bestCost) {
+						best = c;
+						bestCost = cost;
+					}
+				}
+				if (best < 0)
+					continue; // a later press may be going another car's way
+				choice[i] = best;
+				room[best]--;
+				if (way[best] == 0)
+					way[best] = r.direction.sign();
+				stop[stops] = r.floor;
+				next[stops] = head[best];
+				head[best] = stops++;
+				stop[stops] = r.destination;
+				next[stops] = head[best];
+				head[best] = stops++;
+			}
+		}
+
+		private static boolean stopsAt(ElevatorView car, int c, int floor, int[] head, int[] stop,
+				int[] next) {
+			for (int k = head[c]; k >= 0; k = next[k])
+				if (stop[k] == floor)
+					return true;
+			return car.stopsAt(floor);
+		}
+	}
+
+	final class EstimatedArrival implements DispatchStrategy {
+		@Override
+		public void assign(List<Request> pending, List<? extends ElevatorView> cars, int[] choice) {
+			boolean[] taken = new boolean[cars.size()];
+			boolean[] available = new boolean[cars.size()];
+			for (int c = 0; c < cars.size(); c++)
+				available[c] = cars.get(c).isAvailable();
+			for (int i = 0; i < pending.size(); i++) {
+				int floor = pending.get(i).floor;
+				int best = -1, bestEta = Integer.MAX_VALUE;
+				for (int c = 0; c < cars.size(); c++) {
+					if (taken[c])
+						continue;
+					int eta = eta(cars.get(c), floor);
+					if (eta < bestEta || (eta == bestEta && available[c])) {
+						best = c;
+						bestEta = eta;
+					}
+				}
+				if (best < 0)
+					return;
+				taken[best] = true; // a busy car is held for this press too
+				if (available[best])
+					choice[i] = best;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,342 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A provided controller that leaves the choice of car to a DispatchStrategy.
+ * The simulation uses it in place of ElevatorController when its 'dispatch'
+ * field is set. <br><br>
+ *
+ * run() keeps the usual shape: it waits on 'buttonPressed' while no presses
+ * are waiting and on 'elevatorFinished' while the strategy hands out nothing,
+ * and otherwise hails whichever cars the strategy picks. <br><br>
+ *
+ * When the simulation is split into 'zones', each zone has one of these with
+ * its own lock, presses and cars. A zone left with presses its cars cannot
+ * take asks its neighbours for help, and a zone with nothing to do takes the
+ * oldest of a neighbour's waiting presses for its own free cars. Neither
+ * ever blocks on another zone's lock, so zones cannot deadlock each other.
+ * <br><br>
+ *
+ * Presses and freed cars wake run() through ChangeSets rather than a
+ * signalAll() each, so a burst of presses, or of cars coming free, costs one
+ * wakeup. Presses only need the wakeup, since run() drains the new ones
+ * from 'requests' itself; freed cars are recorded by slot, and each pass
+ * takes those freed since the last one, which are the cars reassign()
+ * considers.
+ * <br><br>
+ *
+ * A hail is not final until the rider boards. When a car comes free with
+ * no presses waiting, run() looks for a rider still waiting for another car
+ * that this one could reach much sooner, revokes that hail (see
+ * AbstractElevator.revoke()) and hails the free car instead.
+ */
+public class DispatchingController extends AbstractElevatorController {
+
+	protected final DispatchStrategy strategy;
+	/**
+	 * Presses taken off 'requests' that have not been given a car yet,
+	 * oldest first.
+	 */
+	protected final ArrayList<Request> pending = new ArrayList<Request>();
+	/**
+	 * The elevators in id order, so strategies see the same order every run.
+	 */
+	protected final ArrayList<AbstractElevator> cars = new ArrayList<AbstractElevator>();
+	private int[] choice = new int[16];
+	/**
+	 * The controllers of the neighbouring zones, if the building is zoned.
+	 */
+	final ArrayList<DispatchingController> neighbours = new ArrayList<DispatchingController>();
+	/**
+	 * How many presses were left without a car by the last dispatch, for
+	 * neighbours deciding whether to steal.
+	 */
+	private volatile int backlog = 0;
+	private static final long STEAL_WAIT_MILLIS = 1;
+	/**
+	 * Wakeups for presses, which run() takes from 'requests' as a whole, and
+	 * the cars (by slot) freed since run() last looked.
+	 */
+	private final ChangeSet pressed, freed;
+	/**
+	 * The cars the last pass of run() took from 'freed': the first
+	 * 'freedCount' entries.
+	 */
+	private final int[] freedCars;
+	private int freedCount;
+	private static final int[] NONE = new int[0];
+	/**
+	 * Presses that have been given a car whose rider may not have boarded
+	 * yet, and the index in 'cars' of that car.
+	 */
+	private final ArrayList<Hail> hails = new ArrayList<Hail>();
+	private volatile int unboarded = 0;
+	/**
+	 * How many ticks sooner a free car must be able to reach a rider for the
+	 * rider to be moved to it.
+	 */
+	private static final int REASSIGN_GAIN = 3;
+
+	public DispatchingController(DispatchStrategy strategy) {
+		this.strategy = strategy;
+		Simulation sim = Simulation.current();
+		pressed = new ChangeSet(0, lock, buttonPressed);
+		freed = new ChangeSet(sim.numElevators, lock, elevatorFinished);
+		freedCars = new int[freed.size()];
+	}
+
+	@Override
+	public void request(int floor, Direction direction, Person p) {
+		super.request(floor, direction, p);
+		pressed.wake();
+	}
+
+	/**
+	 * A car whose availability went from busy to free counts as freed, even
+	 * if its elevator only signalled 'elevatorFinished' itself, from inside
+	 * its hooks, before the fleet showed it free.
+	 */
+	@Override
+	void available(int slot) {
+		freed(slot);
+	}
+
+	@Override
+	void freed(int slot) {
+		freed.mark(slot);
+		if (unboarded > 0)
+			pressed.wake(); // run() may be waiting for presses; this car could take a rider
+	}
+
+	@Override
+	public void run() {
+		cars.addAll(elevators);
+		Collections.sort(cars, new Comparator<AbstractElevator>() {
+			public int compare(AbstractElevator a, AbstractElevator b) {
+				return a.id - b.id;
+			}
+		});
+		lock.lock();
+		try {
+			while (!Simulation.current().TERMINATE) {
+				pressed.take(NONE); // re-arms the wakeup
+				freedCount = freed.take(freedCars);
+				requests.drainTo(pending, Integer.MAX_VALUE);
+				if (pending.isEmpty())
+					steal();
+				if (pending.isEmpty()) {
+					if (freedCount > 0)
+						reassign();
+					if (pending.isEmpty()) // a rider reassign() could not place is dispatched at once
+						buttonPressed.await();
+					continue;
+				}
+				int hailed = dispatch();
+				backlog = pending.size();
+				if (backlog > 0)
+					askForHelp();
+				if (hailed == 0)
+					elevatorFinished.await();
+			}
+		} catch (InterruptedException e) {
+			return;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Asks the strategy for cars for the waiting presses and hails them,
+	 * repeating while it keeps handing presses out. Strategies are given the
+	 * Fleet's lock-free views of the cars, which show each car as it last
+	 * published, so a car they pick may have stopped taking hails since; its
+	 * hail then fails, the car is claimed in the fleet, and the strategy is
+	 * asked again without it.
+	 *
+	 * @return the number of presses given a car
+	 */
+	protected final int dispatch() {
+		List<Request> view = Collections.unmodifiableList(pending);
+		int hailed = 0;
+		int round, missed;
+		boolean views;
+		do {
+			if (choice.length < pending.size())
+				choice = new int[Math.max(pending.size(), choice.length * 2)];
+			Arrays.fill(choice, 0, pending.size(), -1);
+			views = fleet.size() == cars.size();
+			if (views)
+				strategy.assign(view, fleet, fleet.views(), choice);
+			else
+				strategy.assign(view, cars, choice);
+			round = 0;
+			missed = 0;
+			int kept = 0;
+			for (int i = 0; i < pending.size(); i++) {
+				Request r = pending.get(i);
+				if (choice[i] >= 0 && hail(choice[i], r)) {
+					round++;
+					track(choice[i], r);
+				} else {
+					if (choice[i] >= 0)
+						missed++;
+					pending.set(kept++, r);
+				}
+			}
+			pending.subList(kept, pending.size()).clear();
+			hailed += round;
+		} while ((round > 0 || (views && missed > 0)) && !pending.isEmpty());
+		return hailed;
+	}
+
+	/**
+	 * Moves the oldest presses waiting in neighbouring zones, up to one for
+	 * each free car here, into 'pending'. A neighbour only holds its lock
+	 * while dispatching, so its lock is waited for briefly; if it is still
+	 * taken after that (say, by a neighbour stealing from us) it is skipped.
+	 */
+	private void steal() throws InterruptedException {
+		if (neighbours.isEmpty())
+			return;
+		int free = 0;
+		for (int c = 0; c < fleet.size(); c++)
+			if (fleet.isFree(c))
+				free++;
+		for (DispatchingController n : neighbours) {
+			if (free == 0)
+				return;
+			if (n.backlog == 0 || !n.lock.tryLock(STEAL_WAIT_MILLIS, TimeUnit.MILLISECONDS))
+				continue;
+			try {
+				int k = Math.min(free, n.pending.size());
+				List<Request> taken = n.pending.subList(0, k);
+				pending.addAll(taken);
+				taken.clear();
+				n.backlog = n.pending.size();
+				free -= k;
+			} finally {
+				n.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Wakes any neighbour waiting for presses, so that it can steal some of
+	 * ours.
+	 */
+	private void askForHelp() {
+		for (DispatchingController n : neighbours) {
+			if (!n.lock.tryLock())
+				continue; // busy, and it looks for work before it waits again
+			try {
+				n.buttonPressed.signalAll();
+			} finally {
+				n.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Remembers that car 'c' was hailed for 'r', forgetting riders who have
+	 * boarded since, and the oldest hails if there are still more than the
+	 * cars could have room for.
+	 */
+	private void track(int c, Request r) {
+		hails.add(new Hail(r, c));
+		int limit = 2 * cars.size() * Simulation.current().capacity;
+		if (hails.size() > limit) {
+			prune();
+			if (hails.size() > limit)
+				hails.subList(0, hails.size() - limit).clear();
+		}
+		unboarded = hails.size();
+	}
+
+	private void prune() {
+		int kept = 0;
+		for (int i = 0; i < hails.size(); i++)
+			if (hails.get(i).request.person.waiting())
+				hails.set(kept++, hails.get(i));
+		hails.subList(kept, hails.size()).clear();
+		unboarded = hails.size();
+	}
+
+	/**
+	 * For each car freed since the last pass that is still free, finds the
+	 * rider it could reach at least REASSIGN_GAIN ticks sooner than the car
+	 * they were given (by the most), takes that hail back and hails this car
+	 * instead. A rider who boards first stays where they are.
+	 */
+	private void reassign() {
+		prune();
+		if (hails.isEmpty() || fleet.size() != cars.size())
+			return;
+		List<ElevatorView> views = fleet.views();
+		for (int k = 0; k < freedCount; k++) {
+			int c = freedCars[k];
+			if (c >= cars.size() || !fleet.isFree(c))
+				continue;
+			int floor = fleet.getFloor(c);
+			int best = -1, bestGain = REASSIGN_GAIN - 1;
+			for (int i = 0; i < hails.size(); i++) {
+				Hail h = hails.get(i);
+				if (h.car == c)
+					continue;
+				int gain = DispatchStrategy.eta(views.get(h.car), h.request.floor)
+						- Math.abs(floor - h.request.floor);
+				if (gain > bestGain) {
+					best = i;
+					bestGain = gain;
+				}
+			}
+			if (best < 0)
+				continue;
+			Hail h = hails.get(best);
+			AbstractElevator from = cars.get(h.car);
+			if (!from.revoke(h.request.person)) {
+				hails.remove(best); // boarded, or the car can not give riders back
+				continue;
+			}
+			from.publish();
+			if (hail(c, h.request)) {
+				h.car = c;
+			} else {
+				hails.remove(best);
+				pending.add(h.request); // run() dispatches it again before waiting
+			}
+		}
+		unboarded = hails.size();
+	}
+
+	/**
+	 * Hails car 'c' for 'r', then brings the car's slot in 'fleet' up to date
+	 * without waiting for its next tick.
+	 */
+	private boolean hail(int c, Request r) {
+		AbstractElevator car = cars.get(c);
+		try {
+			car.hail(r.floor, r.direction, r.person);
+			r.person.hail();
+		} catch (OccupiedException e) {
+			fleet.claim(c);
+			return false; // the strategy picked a busy car; the press keeps waiting
+		}
+		car.publish();
+		return true;
+	}
+
+	private static final class Hail {
+		final Request request;
+		int car;
+
+		Hail(Request request, int car) {
+			this.request = request;
+			this.car = car;
+		}
+	}
+
+}
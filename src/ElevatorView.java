@@ -0,0 +1,54 @@
+
+/**
+ * A read-only view of an elevator's state, given to a DispatchStrategy so it
+ * can choose between cars without being able to change them. 
+ * AbstractElevator implements it.
+ */
+public interface ElevatorView {
+	
+	char getId();
+	
+	/**
+	 * @return the floor the elevator is on
+	 */
+	int getFloor();
+	
+	/**
+	 * @return the floor the elevator is moving towards
+	 */
+	int getTargetFloor();
+	
+	/**
+	 * @return the way the elevator is travelling, or null if it has nowhere
+	 * to go
+	 */
+	Direction getDirection();
+	
+	/**
+	 * @return the number of people aboard
+	 */
+	int getLoad();
+	
+	/**
+	 * @return the number of people the elevator can carry at once
+	 */
+	int getCapacity();
+	
+	/**
+	 * @return true if the elevator can be hailed
+	 */
+	boolean isAvailable();
+	
+	/**
+	 * @return how many more people the elevator can be hailed for; 0 if it is
+	 * not available
+	 */
+	int getRoom();
+	
+	/**
+	 * @return true if the elevator already means to stop at 'floor', to pick
+	 * someone up or let someone off
+	 */
+	boolean stopsAt(int floor);
+	
+}
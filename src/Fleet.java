@@ -0,0 +1,357 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The state of all of one controller's elevators, kept as parallel arrays of
+ * ints (one slot per elevator) rather than spread over the AbstractElevator
+ * objects, so that a search over every car reads a few contiguous arrays
+ * instead of chasing one object, and one lock, per car. <br><br>
+ *
+ * Each slot has its own StampedLock. The car takes it to write its slot as
+ * it moves and as people get on and off, and to publish its target, room
+ * and stops at the end of each tick; the controller takes it to publish
+ * after a hail and to claim a car. Readers never block a writer: they read
+ * the fields under an optimistic stamp and only fall back to the read lock
+ * if a write got in between, so the controller never sees a floor from one
+ * tick with a target from another, and never takes a car's own lock to look
+ * at it. <br><br>
+ *
+ * Each elevator takes the next slot as it is made, so slots follow id order.
+ * A car keeps the availability it last published until it publishes again
+ * at the end of its next tick, and the controller is told (see
+ * AbstractElevatorController.available()) whenever that turns a busy car
+ * free. A car found free here may still have been hailed by someone else
+ * since, so its hail is what confirms it. Slots are added while the
+ * elevators are being made, before the simulation starts.
+ */
+public final class Fleet {
+
+	/**
+	 * Added to the distance of a car that is busy, so a single minimum over
+	 * every slot finds the nearest free car.
+	 */
+	private static final int BUSY = 1 << 30;
+	private static final int[] NO_STOPS = {};
+
+	private int size = 0;
+	private int[] floor = new int[8];
+	private int[] target = new int[8];
+	private int[] load = new int[8];
+	/**
+	 * How many more people each car can be hailed for, 0 while busy.
+	 */
+	private int[] room = new int[8];
+	/**
+	 * BUSY while a car is busy, 0 while it is free.
+	 */
+	private int[] busy = new int[8];
+	/**
+	 * Each car's stops, sorted, as it last published them; never changed in
+	 * place.
+	 */
+	private int[][] stops = new int[8][];
+	private StampedLock[] locks = new StampedLock[8];
+	private AbstractElevator[] cars = new AbstractElevator[8];
+	private List<ElevatorView> views;
+	/**
+	 * Held to add a slot or make the views.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * @return the slot for 'car', a new, idle elevator on floor 0
+	 */
+	int add(AbstractElevator car) {
+		lock.lock();
+		try {
+			if (size == cars.length) {
+				floor = Arrays.copyOf(floor, size * 2);
+				target = Arrays.copyOf(target, size * 2);
+				load = Arrays.copyOf(load, size * 2);
+				room = Arrays.copyOf(room, size * 2);
+				busy = Arrays.copyOf(busy, size * 2);
+				stops = Arrays.copyOf(stops, size * 2);
+				locks = Arrays.copyOf(locks, size * 2);
+				cars = Arrays.copyOf(cars, size * 2);
+			}
+			cars[size] = car;
+			room[size] = car.capacity;
+			stops[size] = NO_STOPS;
+			locks[size] = new StampedLock();
+			return size++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of elevators in the fleet
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Copies the floor, target and load of the car in 'slot', all from the
+	 * same moment, into the first three elements of 'into'.
+	 */
+	public void snapshot(int slot, int[] into) {
+		StampedLock lock = locks[slot];
+		long stamp = lock.tryOptimisticRead();
+		into[0] = floor[slot];
+		into[1] = target[slot];
+		into[2] = load[slot];
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				into[0] = floor[slot];
+				into[1] = target[slot];
+				into[2] = load[slot];
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+	}
+
+	public int getFloor(int slot) {
+		return read(slot, floor);
+	}
+
+	public int getTargetFloor(int slot) {
+		return read(slot, target);
+	}
+
+	public int getLoad(int slot) {
+		return read(slot, load);
+	}
+
+	/**
+	 * @return how many more people the car in 'slot' could be hailed for as
+	 * it last published, 0 if busy
+	 */
+	public int getRoom(int slot) {
+		return read(slot, room);
+	}
+
+	/**
+	 * @return whether the car in 'slot' was available at its last tick and
+	 * has not been claimed since
+	 */
+	public boolean isFree(int slot) {
+		return read(slot, busy) == 0;
+	}
+
+	/**
+	 * @return the way the car in 'slot' is heading, or null if it is at its
+	 * target
+	 */
+	public Direction getDirection(int slot) {
+		StampedLock lock = locks[slot];
+		long stamp = lock.tryOptimisticRead();
+		int at = floor[slot], to = target[slot];
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				at = floor[slot];
+				to = target[slot];
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		return at == to ? null : Direction.of(at, to);
+	}
+
+	/**
+	 * @return true if 'floor' is among the stops the car in 'slot' last
+	 * published
+	 */
+	public boolean stopsAt(int slot, int floor) {
+		StampedLock lock = locks[slot];
+		long stamp = lock.tryOptimisticRead();
+		int[] stops = this.stops[slot];
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				stops = this.stops[slot];
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		return Arrays.binarySearch(stops, floor) >= 0;
+	}
+
+	/**
+	 * @return 'field' of the car in 'slot', as of its last write
+	 */
+	private int read(int slot, int[] field) {
+		StampedLock lock = locks[slot];
+		long stamp = lock.tryOptimisticRead();
+		int value = field[slot];
+		if (lock.validate(stamp))
+			return value;
+		stamp = lock.readLock();
+		try {
+			return field[slot];
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * @return a read-only view of each car, in slot order, whose getters read
+	 * this fleet instead of the car, so scanning them takes no car's lock
+	 */
+	public List<ElevatorView> views() {
+		lock.lock();
+		try {
+			if (views == null) {
+				final View[] all = new View[size];
+				for (int i = 0; i < size; i++)
+					all[i] = new View(i);
+				views = new AbstractList<ElevatorView>() {
+					public ElevatorView get(int i) {
+						return all[i];
+					}
+					public int size() {
+						return all.length;
+					}
+				};
+			}
+			return views;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Records that the car in 'slot' has moved to 'floor'.
+	 */
+	void move(int slot, int floor) {
+		StampedLock lock = locks[slot];
+		long stamp = lock.writeLock();
+		this.floor[slot] = floor;
+		lock.unlockWrite(stamp);
+	}
+
+	/**
+	 * Records that 'load' people are aboard the car in 'slot'.
+	 */
+	void load(int slot, int load) {
+		StampedLock lock = locks[slot];
+		long stamp = lock.writeLock();
+		this.load[slot] = load;
+		lock.unlockWrite(stamp);
+	}
+
+	/**
+	 * Records the target of the car in 'slot', how many more people it can
+	 * be hailed for and the floors it is due to stop at, sorted, at the end
+	 * of its tick or after a hail. It is busy if 'room' is none. 'stops' must
+	 * not be changed afterwards.
+	 *
+	 * @return true if the car was busy and now is not
+	 */
+	boolean publish(int slot, int target, int room, int[] stops) {
+		StampedLock lock = locks[slot];
+		long stamp = lock.writeLock();
+		boolean freed = busy[slot] != 0 && room > 0;
+		this.target[slot] = target;
+		this.room[slot] = room;
+		this.busy[slot] = room > 0 ? 0 : BUSY;
+		this.stops[slot] = stops;
+		lock.unlockWrite(stamp);
+		return freed;
+	}
+
+	/**
+	 * Marks the car in 'slot' as taken until its next tick, so that further
+	 * searches skip it.
+	 */
+	public void claim(int slot) {
+		StampedLock lock = locks[slot];
+		long stamp = lock.writeLock();
+		room[slot] = 0;
+		busy[slot] = BUSY;
+		lock.unlockWrite(stamp);
+	}
+
+	/**
+	 * Finds the free car nearest to 'floor' with one pass over the floor and
+	 * busy arrays, lowest slot first on ties. The loop body is branch-free
+	 * apart from the running minimum, which keeps it cheap for fleets of tens
+	 * of thousands of cars. It reads the arrays without the slots' locks, so
+	 * a car that is moving or being claimed meanwhile may be seen a floor
+	 * out of date; the car's hail confirms the pick.
+	 *
+	 * @return the slot of that car, or -1 if every car is busy
+	 */
+	public int nearestFree(int floor) {
+		int[] floors = this.floor, busy = this.busy;
+		int n = Math.min(size, Math.min(floors.length, busy.length));
+		int best = -1, bestKey = BUSY;
+		for (int i = 0; i < n; i++) {
+			int key = Math.abs(floors[i] - floor) + busy[i];
+			if (key < bestKey) {
+				bestKey = key;
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * An ElevatorView of one slot.
+	 */
+	private final class View implements ElevatorView {
+		private final int slot;
+
+		View(int slot) {
+			this.slot = slot;
+		}
+
+		public char getId() {
+			return cars[slot].id;
+		}
+
+		public int getFloor() {
+			return Fleet.this.getFloor(slot);
+		}
+
+		public int getTargetFloor() {
+			return Fleet.this.getTargetFloor(slot);
+		}
+
+		public Direction getDirection() {
+			return Fleet.this.getDirection(slot);
+		}
+
+		public int getLoad() {
+			return Fleet.this.getLoad(slot);
+		}
+
+		public int getCapacity() {
+			return cars[slot].capacity;
+		}
+
+		public boolean isAvailable() {
+			return Fleet.this.isFree(slot);
+		}
+
+		public int getRoom() {
+			return Fleet.this.getRoom(slot);
+		}
+
+		public boolean stopsAt(int floor) {
+			return Fleet.this.stopsAt(slot, floor);
+		}
+
+		@Override
+		public String toString() {
+			return cars[slot].toString();
+		}
+	}
+
+}
@@ -0,0 +1,161 @@
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The hall calls waiting on each floor, for collective control. Every floor
+ * has an up and a down button, and each direction has a bitmap with one bit
+ * per floor saying which floors have someone waiting to go that way, so a car
+ * can find the next call above or below it a word at a time. Each button
+ * keeps its own queue of the people who pressed it. <br><br>
+ *
+ * Buttons post calls and cars take them from any number of threads at once.
+ */
+public final class HallCalls {
+
+	private final int numFloors;
+	/**
+	 * Indexed by Direction.ordinal().
+	 */
+	private final AtomicLongArray[] called;
+	private final ConcurrentLinkedQueue<Person>[][] waiting;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public HallCalls(int numFloors) {
+		this.numFloors = numFloors;
+		called = new AtomicLongArray[2];
+		waiting = new ConcurrentLinkedQueue[2][numFloors];
+		for (Direction d : Direction.values()) {
+			called[d.ordinal()] = new AtomicLongArray((numFloors + 63) >> 6);
+			for (int i = 0; i < numFloors; i++)
+				waiting[d.ordinal()][i] = new ConcurrentLinkedQueue<Person>();
+		}
+	}
+
+	/**
+	 * Records that 'p' is waiting on 'floor' to go the way they are going.
+	 */
+	public void post(int floor, Person p) {
+		post(floor, p.getDirection(), p);
+	}
+
+	/**
+	 * Records that 'p' is waiting on 'floor' and has pressed the 'direction'
+	 * button.
+	 */
+	public void post(int floor, Direction direction, Person p) {
+		waiting[direction.ordinal()][floor].add(p);
+		set(called[direction.ordinal()], floor);
+	}
+
+	/**
+	 * @return true if someone is waiting on 'floor', either way
+	 */
+	public boolean isCalled(int floor) {
+		return isCalled(floor, Direction.UP) || isCalled(floor, Direction.DOWN);
+	}
+
+	/**
+	 * @return true if someone is waiting on 'floor' to go 'direction'
+	 */
+	public boolean isCalled(int floor, Direction direction) {
+		return (called[direction.ordinal()].get(floor >> 6) & (1L << floor)) != 0;
+	}
+
+	/**
+	 * Moves up to 'max' of the people waiting on 'floor' to go 'direction'
+	 * into 'out', in the order they called.
+	 *
+	 * @return the number of people taken
+	 */
+	public int take(int floor, Direction direction, int max, Collection<Person> out) {
+		ConcurrentLinkedQueue<Person> queue = waiting[direction.ordinal()][floor];
+		AtomicLongArray bits = called[direction.ordinal()];
+		int count = 0;
+		Person p;
+		while (count < max && (p = queue.poll()) != null) {
+			out.add(p);
+			count++;
+		}
+		if (queue.isEmpty()) {
+			clear(bits, floor);
+			if (!queue.isEmpty()) // someone called while we were clearing
+				set(bits, floor);
+		}
+		return count;
+	}
+
+	/**
+	 * @return the closest floor above 'floor' with a call either way, or -1
+	 * if there is none
+	 */
+	public int nextAbove(int floor) {
+		int up = nextAbove(floor, Direction.UP), down = nextAbove(floor, Direction.DOWN);
+		return up < 0 ? down : down < 0 ? up : Math.min(up, down);
+	}
+
+	/**
+	 * @return the closest floor below 'floor' with a call either way, or -1
+	 * if there is none
+	 */
+	public int nextBelow(int floor) {
+		return Math.max(nextBelow(floor, Direction.UP), nextBelow(floor, Direction.DOWN));
+	}
+
+	/**
+	 * @return the closest floor above 'floor' with a call to go 'direction',
+	 * or -1 if there is none
+	 */
+	public int nextAbove(int floor, Direction direction) {
+		AtomicLongArray called = this.called[direction.ordinal()];
+		int start = floor + 1;
+		int w = start >> 6;
+		if (start >= numFloors)
+			return -1;
+		long bits = called.get(w) & (-1L << start);
+		while (bits == 0) {
+			if (++w == called.length())
+				return -1;
+			bits = called.get(w);
+		}
+		return (w << 6) + Long.numberOfTrailingZeros(bits);
+	}
+
+	/**
+	 * @return the closest floor below 'floor' with a call to go 'direction',
+	 * or -1 if there is none
+	 */
+	public int nextBelow(int floor, Direction direction) {
+		AtomicLongArray called = this.called[direction.ordinal()];
+		int end = Math.min(floor, numFloors) - 1;
+		if (end < 0)
+			return -1;
+		int w = end >> 6;
+		long bits = called.get(w) & (-1L >>> (63 - (end & 63)));
+		while (bits == 0) {
+			if (--w < 0)
+				return -1;
+			bits = called.get(w);
+		}
+		return (w << 6) + 63 - Long.numberOfLeadingZeros(bits);
+	}
+
+	private static void set(AtomicLongArray called, int floor) {
+		int w = floor >> 6;
+		long bit = 1L << floor;
+		long old;
+		do {
+			old = called.get(w);
+		} while ((old & bit) == 0 && !called.compareAndSet(w, old, old | bit));
+	}
+
+	private static void clear(AtomicLongArray called, int floor) {
+		int w = floor >> 6;
+		long bit = 1L << floor;
+		long old;
+		do {
+			old = called.get(w);
+		} while ((old & bit) != 0 && !called.compareAndSet(w, old, old & ~bit));
+	}
+
+}
@@ -0,0 +1,104 @@
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * How long people waited and rode, gathered as each person gets off. Every
+ * delivery is recorded three times: in the building-wide histograms, in the
+ * histograms of the floor the person called from, and in those of the
+ * elevator that carried them. <br><br>
+ *
+ * Wait time runs from the press to boarding, ride time from boarding to
+ * exiting, and total time from the press to exiting.
+ */
+public final class Latencies {
+
+	/**
+	 * The wait, ride and total histograms for one floor, one elevator, or the
+	 * whole building.
+	 */
+	public static final class Group {
+		public final LatencyHistogram wait = new LatencyHistogram();
+		public final LatencyHistogram ride = new LatencyHistogram();
+		public final LatencyHistogram total = new LatencyHistogram();
+
+		private void record(long wait, long ride) {
+			this.wait.record(wait);
+			this.ride.record(ride);
+			this.total.record(wait + ride);
+		}
+	}
+
+	private final Group building = new Group();
+	private final Group[] floors;
+	private final ConcurrentHashMap<Character, Group> elevators = new ConcurrentHashMap<Character, Group>();
+
+	public Latencies(int numFloors) {
+		floors = new Group[numFloors];
+		for (int i = 0; i < numFloors; i++)
+			floors[i] = new Group();
+	}
+
+	/**
+	 * Records a person who has just got off 'e'.
+	 */
+	void record(Person p, AbstractElevator e) {
+		long wait = p.getBoarded() - p.getPressed();
+		long ride = p.getExited() - p.getBoarded();
+		building.record(wait, ride);
+		floors[p.getStartingFloor()].record(wait, ride);
+		Group group = elevators.get(e.id);
+		if (group == null) {
+			elevators.putIfAbsent(e.id, new Group());
+			group = elevators.get(e.id);
+		}
+		group.record(wait, ride);
+	}
+
+	public Group getBuilding() {
+		return building;
+	}
+
+	public Group getFloor(int floor) {
+		return floors[floor];
+	}
+
+	/**
+	 * @return the histograms of the elevator with id 'id', or null if it has
+	 * not delivered anyone
+	 */
+	public Group getElevator(char id) {
+		return elevators.get(id);
+	}
+
+	/**
+	 * Prints p50/p90/p99/max for the whole building, then, if 'detailed', for
+	 * every floor and elevator.
+	 */
+	public void print(PrintStream out, boolean detailed) {
+		out.printf("%-12s %-6s %7s %10s %10s %10s %10s %10s\n",
+				"", "", "count", "mean ms", "p50 ms", "p90 ms", "p99 ms", "max ms");
+		print(out, "building", building);
+		if (!detailed)
+			return;
+		for (int i = floors.length - 1; i >= 0; i--)
+			if (floors[i].total.getCount() > 0)
+				print(out, "floor " + i, floors[i]);
+		for (Map.Entry<Character, Group> e : new TreeMap<Character, Group>(elevators).entrySet())
+			print(out, "elevator " + e.getKey(), e.getValue());
+	}
+
+	private static void print(PrintStream out, String name, Group group) {
+		print(out, name, "wait", group.wait);
+		print(out, "", "ride", group.ride);
+		print(out, "", "total", group.total);
+	}
+
+	private static void print(PrintStream out, String name, String kind, LatencyHistogram h) {
+		out.printf("%-12s %-6s %7d %10.1f %10.1f %10.1f %10.1f %10.1f\n", name, kind, h.getCount(),
+				h.getMean() / 1e6, h.getPercentile(0.5) / 1e6, h.getPercentile(0.9) / 1e6,
+				h.getPercentile(0.99) / 1e6, h.getMax() / 1e6);
+	}
+
+}
@@ -0,0 +1,83 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds that any number of threads can
+ * record into at once without locking. <br><br>
+ *
+ * Values below 32 get a bucket each; above that, every power of two is split
+ * into 16 buckets, so a percentile is never off by more than about 6%, and
+ * the whole range of a long fits in 1024 counters.
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BITS = 5;
+	private static final int HALF = 1 << (SUB_BITS - 1);
+
+	private final AtomicLongArray counts = new AtomicLongArray(64 * HALF);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records one duration. Negative values are counted as zero.
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(index(value));
+		count.increment();
+		sum.add(value);
+		long old;
+		while (value > (old = max.get()) && !max.compareAndSet(old, value))
+			;
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * @param fraction between 0 and 1, e.g. 0.99 for the 99th percentile
+	 * @return the smallest bucket bound that at least 'fraction' of the
+	 * recorded values fall under, or 0 if nothing has been recorded
+	 */
+	public long getPercentile(double fraction) {
+		long n = count.sum();
+		if (n == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(fraction * n));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(upperBound(i), max.get());
+		}
+		return max.get();
+	}
+
+	private static int index(long value) {
+		if (value < 2 * HALF)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+		return shift * HALF + (int) (value >>> shift);
+	}
+
+	private static long upperBound(int index) {
+		if (index < 2 * HALF)
+			return index;
+		int shift = index / HALF - 1;
+		long top = index % HALF + HALF;
+		return ((top + 1) << shift) - 1;
+	}
+
+}
@@ -13,6 +13,16 @@ public final class Person {
 	private int destination;
 	private AbstractElevator elevator;
 	private boolean done = false;
+	/**
+	 * The button that spawned this person, told when they board and get off,
+	 * or null.
+	 */
+	private final AbstractButton button;
+	/*
+	 * When this person pressed the button, was assigned an elevator, got on
+	 * and got off, from Simulation.nanoTime(). 0 until it happens.
+	 */
+	private long pressed, hailed, boarded, exited;
 	public boolean waiting() {
 		return elevator == null;
 	}
@@ -22,8 +32,15 @@ public final class Person {
 	
 	
 	public Person(int startingFloor) {
+		this(startingFloor, Simulation.randInt(Simulation.current().numFloors));
+	}
+	Person(int startingFloor, int destination) {
+		this(startingFloor, destination, null);
+	}
+	Person(int startingFloor, int destination, AbstractButton button) {
 		this.startingFloor = startingFloor;
-		this.destination = Simulation.randInt(Simulation.current.numFloors);
+		this.destination = destination;
+		this.button = button;
 	}
 	/**
 	 * @return the floor that this person wants to go to.
@@ -31,6 +48,40 @@ public final class Person {
 	public int getDestination() {
 		return destination;
 	}
+	long getPressed() {
+		return pressed;
+	}
+	long getHailed() {
+		return hailed;
+	}
+	long getBoarded() {
+		return boarded;
+	}
+	long getExited() {
+		return exited;
+	}
+	void press() {
+		pressed = Simulation.nanoTime();
+	}
+	/**
+	 * Records the first time an elevator was assigned to this person.
+	 */
+	void hail() {
+		if (hailed == 0)
+			hailed = Simulation.nanoTime();
+	}
+	/**
+	 * @return the hall-call button this person pressed: the way they are going
+	 */
+	public Direction getDirection() {
+		return Direction.of(startingFloor, destination);
+	}
+	/**
+	 * @return the floor that this person is waiting on.
+	 */
+	int getStartingFloor() {
+		return startingFloor;
+	}
 	/**
 	 * Call this method to make the person get on the elevator.
 	 * 
@@ -40,10 +91,16 @@ public final class Person {
 		if (elevator != null) 
 			throw new TestFailure("Passenger " + startingFloor + " is Already "
 					+ "on an Elevator");
+		if (e.getLoad() >= e.capacity)
+			throw new TestFailure("Passenger " + startingFloor + " Cannot Board "
+					+ "Elevator " + e.id + ", it is Full.");
 		if (e.getFloor() != startingFloor)
 			throw new TestFailure("Cannot Pick Up Passenger " + startingFloor 
 					+" from Floor " + e.getFloor() +".");
 		elevator = e;
+		boarded = Simulation.nanoTime();
+		if (button != null)
+			button.boarded(this);
 	}
 	/**
 	 * Call this method to make the person get off the elevator
@@ -58,6 +115,10 @@ public final class Person {
 					+destination+". He/She Cannot be Dropped Off at " 
 					+ elevator.getFloor() +".");
 		done = true;
+		exited = Simulation.nanoTime();
+		if (button != null)
+			button.retired();
+		Simulation.current().delivered(this, elevator);
 	}
 	@Override
 	public String toString() {
@@ -0,0 +1,40 @@
+
+/**
+ * An immutable record of one button press: the floor it was pressed on, which
+ * of that floor's buttons (up or down) was pressed, where the Person who
+ * pressed it is going, and when (see Simulation.nanoTime()). <br><br>
+ * 
+ * Requests are created by the controller as it takes presses off its
+ * RequestQueue, never by the Buttons themselves.
+ */
+public final class Request {
+	public final int floor;
+	public final Direction direction;
+	/**
+	 * The floor 'person' is going to, as entered on a destination-dispatch
+	 * keypad.
+	 */
+	public final int destination;
+	public final Person person;
+	public final long time;
+	
+	public Request(int floor, Direction direction, Person person, long time) {
+		this.floor = floor;
+		this.direction = direction;
+		this.destination = person.getDestination();
+		this.person = person;
+		this.time = time;
+	}
+	
+	/**
+	 * A press of the button for the way 'person' is going.
+	 */
+	public Request(int floor, Person person, long time) {
+		this(floor, person.getDirection(), person, time);
+	}
+	
+	@Override
+	public String toString() {
+		return person + "@" + floor + (direction == Direction.UP ? "^" : "v") + destination;
+	}
+}
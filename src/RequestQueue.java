@@ -0,0 +1,323 @@
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The controller's queue of button presses: a ring buffer that many Buttons
+ * can add to at once, emptied by the controller alone. <br><br>
+ *
+ * Each slot holds a floor, a Direction, a Person and a timestamp side by side,
+ * so the parts of a press can never get out of step. A press claims a slot
+ * with a single compare-and-set and allocates nothing; Request records are only
+ * made on the controller's side, as presses are taken off with poll() or
+ * drainTo(). When the ring is full, presses go to an unbounded overflow
+ * list instead, and keep going there until the controller has emptied it, so
+ * a press never waits for the controller (which may be waiting for the very
+ * thread that is pressing). <br><br>
+ *
+ * floors() and persons() give the older view of the same presses as two
+ * separate queues, which is what AbstractElevatorController's 'floorQueue' and
+ * 'personQueue' are. Adding a floor to one and a person to the other, as
+ * request() once did, makes a press of the two. Use either the views or
+ * poll()/drainTo(), not both.
+ */
+public final class RequestQueue {
+
+	private final int capacity;
+	private final int mask;
+	private final int[] floors;
+	private final Direction[] directions;
+	private final Person[] persons;
+	private final long[] times;
+	/**
+	 * Per-slot sequence numbers. Slot i is free for the press at position
+	 * 'pos' when its sequence is 'pos', and holds that press once it is 'pos + 1'.
+	 */
+	private final AtomicLongArray sequence;
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long head = 0;
+	/**
+	 * Presses made while the ring was full, oldest first, and how many there
+	 * are. The count goes up before a press is added, so presses keep coming
+	 * here rather than to the ring until the controller has taken them all.
+	 */
+	private final ConcurrentLinkedQueue<Request> overflow = new ConcurrentLinkedQueue<Request>();
+	private final AtomicInteger overflowed = new AtomicInteger();
+
+	/**
+	 * @param capacity the most presses the ring holds before they overflow,
+	 * rounded up to a power of two
+	 */
+	public RequestQueue(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.capacity = size;
+		mask = size - 1;
+		floors = new int[size];
+		directions = new Direction[size];
+		persons = new Person[size];
+		times = new long[size];
+		sequence = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++)
+			sequence.set(i, i);
+	}
+
+	/**
+	 * Adds a press of the button for the way 'p' is going.
+	 */
+	public void offer(int floor, Person p) {
+		offer(floor, p.getDirection(), p);
+	}
+
+	/**
+	 * Adds a press to the queue. Safe to call from any number of threads, and
+	 * never waits.
+	 */
+	public void offer(int floor, Direction direction, Person p) {
+		long time = Simulation.nanoTime();
+		while (overflowed.get() == 0) {
+			long pos = tail.get();
+			long seq = sequence.get((int) pos & mask);
+			if (seq == pos) {
+				if (!tail.compareAndSet(pos, pos + 1))
+					continue;
+				int i = (int) pos & mask;
+				floors[i] = floor;
+				directions[i] = direction;
+				persons[i] = p;
+				times[i] = time;
+				sequence.lazySet(i, pos + 1);
+				return;
+			} else if (seq < pos) {
+				break; // full
+			}
+		}
+		overflowed.incrementAndGet();
+		overflow.add(new Request(floor, direction, p, time));
+	}
+
+	/**
+	 * Takes the oldest press off the queue. Only the controller may call this.
+	 *
+	 * @return the oldest press, or null if there is none
+	 */
+	public Request poll() {
+		long pos = head;
+		int i = (int) pos & mask;
+		if (sequence.get(i) != pos + 1) {
+			Request r = overflowed.get() > 0 ? overflow.poll() : null;
+			if (r != null)
+				overflowed.decrementAndGet();
+			return r;
+		}
+		Request r = new Request(floors[i], directions[i], persons[i], times[i]);
+		persons[i] = null;
+		sequence.lazySet(i, pos + capacity);
+		head = pos + 1;
+		return r;
+	}
+
+	/**
+	 * Takes up to 'max' presses off the queue, oldest first, and adds them to
+	 * 'c'. Only the controller may call this.
+	 *
+	 * @return the number of presses taken
+	 */
+	public int drainTo(Collection<? super Request> c, int max) {
+		int count = 0;
+		Request r;
+		while (count < max && (r = poll()) != null) {
+			c.add(r);
+			count++;
+		}
+		return count;
+	}
+
+	public boolean isEmpty() {
+		long pos = head;
+		return sequence.get((int) pos & mask) != pos + 1 && overflow.isEmpty();
+	}
+
+	/**
+	 * @return about how many presses are waiting; exact only when no Button
+	 * is pressing at the same time
+	 */
+	public int size() {
+		return (int) Math.max(0, tail.get() - head) + overflowed.get();
+	}
+
+	/**
+	 * @return the floors of the waiting presses, as a queue
+	 */
+	public Queue<Integer> floors() {
+		return floorView;
+	}
+
+	/**
+	 * @return the people of the waiting presses, as a queue
+	 */
+	public Queue<Person> persons() {
+		return personView;
+	}
+
+	/*
+	 * The views take whole presses off the ring and keep them in 'taken' until
+	 * both the floor and the person have been polled, so polling one view ahead
+	 * of the other still hands out matching floors and people. A floor or a
+	 * person added to one view waits in 'addedFloors' or 'addedPersons' until
+	 * the other half is added to the other. All of it is guarded by
+	 * 'viewLock', since a controller may add from the Buttons' threads while
+	 * it polls from its own.
+	 */
+	private final ReentrantLock viewLock = new ReentrantLock();
+	private final ArrayList<Request> taken = new ArrayList<Request>();
+	private int floorsTaken = 0;
+	private int personsTaken = 0;
+	private final ArrayList<Integer> addedFloors = new ArrayList<Integer>();
+	private final ArrayList<Person> addedPersons = new ArrayList<Person>();
+
+	private final View<Integer> floorView = new View<Integer>() {
+		Integer get(Request r) {
+			return r.floor;
+		}
+		int position() {
+			return floorsTaken;
+		}
+		void advance() {
+			floorsTaken++;
+		}
+		void pair(Integer floor) {
+			if (addedPersons.isEmpty())
+				addedFloors.add(floor);
+			else
+				RequestQueue.this.offer(floor, addedPersons.remove(0));
+		}
+	};
+
+	private final View<Person> personView = new View<Person>() {
+		Person get(Request r) {
+			return r.person;
+		}
+		int position() {
+			return personsTaken;
+		}
+		void advance() {
+			personsTaken++;
+		}
+		void pair(Person p) {
+			if (addedFloors.isEmpty())
+				addedPersons.add(p);
+			else
+				RequestQueue.this.offer(addedFloors.remove(0), p);
+		}
+	};
+
+	private abstract class View<E> extends AbstractQueue<E> {
+		abstract E get(Request r);
+		abstract int position();
+		abstract void advance();
+		/**
+		 * Pairs 'e' with the oldest unmatched half of a press from the other
+		 * view, or keeps it until one comes.
+		 */
+		abstract void pair(E e);
+
+		private Request next() {
+			if (position() == taken.size()) {
+				Request r = RequestQueue.this.poll();
+				if (r == null)
+					return null;
+				taken.add(r);
+			}
+			return taken.get(position());
+		}
+
+		@Override
+		public E peek() {
+			viewLock.lock();
+			try {
+				Request r = next();
+				return r == null ? null : get(r);
+			} finally {
+				viewLock.unlock();
+			}
+		}
+
+		@Override
+		public E poll() {
+			viewLock.lock();
+			try {
+				Request r = next();
+				if (r == null)
+					return null;
+				advance();
+				while (floorsTaken > 0 && personsTaken > 0) {
+					taken.remove(0);
+					floorsTaken--;
+					personsTaken--;
+				}
+				return get(r);
+			} finally {
+				viewLock.unlock();
+			}
+		}
+
+		@Override
+		public boolean offer(E e) {
+			if (e == null)
+				throw new NullPointerException();
+			viewLock.lock();
+			try {
+				pair(e);
+				return true;
+			} finally {
+				viewLock.unlock();
+			}
+		}
+
+		@Override
+		public boolean isEmpty() {
+			viewLock.lock();
+			try {
+				return position() == taken.size() && RequestQueue.this.isEmpty();
+			} finally {
+				viewLock.unlock();
+			}
+		}
+
+		@Override
+		public int size() {
+			viewLock.lock();
+			try {
+				return taken.size() - position() + RequestQueue.this.size();
+			} finally {
+				viewLock.unlock();
+			}
+		}
+
+		@Override
+		public Iterator<E> iterator() {
+			ArrayList<E> snapshot = new ArrayList<E>();
+			viewLock.lock();
+			try {
+				for (int i = position(); i < taken.size(); i++)
+					snapshot.add(get(taken.get(i)));
+				for (long pos = head; sequence.get((int) pos & mask) == pos + 1; pos++)
+					snapshot.add(get(new Request(floors[(int) pos & mask], directions[(int) pos & mask],
+							persons[(int) pos & mask], times[(int) pos & mask])));
+				for (Request r : overflow)
+					snapshot.add(get(r));
+			} finally {
+				viewLock.unlock();
+			}
+			return snapshot.iterator();
+		}
+	}
+
+}
@@ -1,6 +1,16 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.HashSet;
-import java.util.Random;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 
@@ -47,9 +57,12 @@ import java.util.concurrent.locks.Condition;
  * file, so any changes you make will not be preserved during grading. Your
  * implementation must work with the provided code. <br><br>
  * 
- * This assignment assumes a simplified elevator system in which each floor only 
- * has a single button (not 'going-up' and 'going-down' buttons). Elevators
- * can only carry one person at a time. We do not expect you to implement the most
+ * This assignment assumes a simplified elevator system. Each floor has a
+ * 'going-up' and a 'going-down' button, and each press tells the controller
+ * which one was pressed (see AbstractElevatorController.request()), though a
+ * controller may ignore the direction. Elevators
+ * can only carry one person at a time (the provided Car, used when 'capacity'
+ * is raised, carries more). We do not expect you to implement the most
  * efficient solution, but your system should respond immediately to requests, and
  * every request must be fulfilled. 
  * 
@@ -59,24 +72,38 @@ import java.util.concurrent.locks.Condition;
  */
 public final class Simulation {
 	
-	private static final Random random = new Random();
+	/**
+	 * @return a random int in [0, 'bound') from the calling thread's own
+	 * generator. Not reproducible; the provided buttons draw from their
+	 * own generators split from 'seed' instead.
+	 */
 	public static final int randInt(int bound) {
-		return random.nextInt(bound);
+		return ThreadLocalRandom.current().nextInt(bound);
 	}
 	
 	
 	public Simulation(int numFloors, int numElevators, 
 			int testLengthSeconds, int delayMilliseconds, int pressCount) {
+		this(numFloors, numElevators, testLengthSeconds, delayMilliseconds, pressCount, 1);
+	}
+	
+	public Simulation(int numFloors, int numElevators, int testLengthSeconds, 
+			int delayMilliseconds, int pressCount, int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be at least 1");
 		this.numFloors = numFloors;
 		this.numElevators = numElevators;
 		this.testLengthSeconds = testLengthSeconds;
 		this.delayMilliseconds = delayMilliseconds;
 		this.pressCount = pressCount;
+		this.capacity = capacity;
+		this.latencies = new Latencies(numFloors);
 	}
 
 	private boolean passed = true;
 	public void fail(){
 		passed = false;
+		finished.countDown();
 	}
 	
 	
@@ -120,12 +147,336 @@ public final class Simulation {
 	 * of people spawned per floor.
 	 */
 	public final int pressCount;
+	/**
+	 * The number of people an elevator can carry at once. With more than one,
+	 * the provided Car is used in place of Elevator.
+	 */
+	public final int capacity;
+	
+	
+	// ----- Modes ----- \\
+	/**
+	 * Set to 'true' before running to replace wall-clock sleeps with a
+	 * discrete-event engine (see VirtualClock). Elevator ticks, button presses
+	 * and completion checks then happen in virtual time, so a run takes only
+	 * as long as the work itself rather than 'testLengthSeconds'. The same
+	 * Elevator, Button and ElevatorController classes are used unchanged.
+	 */
+	public boolean virtualClock = false;
+	/**
+	 * Set to 'true' to tick the elevators from a small pool of worker threads,
+	 * one per core, instead of from each elevator's own run() loop (see
+	 * TickPool). The elevators' threads still start, but return at once.
+	 * Ignored when 'virtualClock' is set.
+	 */
+	public boolean tickPool = false;
+	/**
+	 * Makes the threads for the buttons, controller, monitor and elevators (see
+	 * newThread()). Platform threads by default; set it to virtualThreads() to
+	 * run large buildings without one OS thread per button and elevator.
+	 */
+	public ThreadFactory threads = Thread::new;
+	/**
+	 * When set, the provided DispatchingController runs with this strategy
+	 * in place of ElevatorController, so policies can be compared on the same
+	 * Elevators and Buttons.
+	 */
+	public DispatchStrategy dispatch = null;
+	/**
+	 * Set to 'true' for collective control: presses are posted to a per-floor
+	 * HallCalls bitmap instead of being dispatched, and CollectiveElevators
+	 * sweep up and down serving every call along their way (SCAN/LOOK). The
+	 * controller still receives every press but never hails.
+	 */
+	public boolean collective = false;
+	/**
+	 * Splits the building into this many bands of floors, each with its own
+	 * DispatchingController (with 'dispatch', or NEAREST_CAR) and its own
+	 * share of the elevators, so presses are dispatched on several threads
+	 * under several locks. A zone with idle cars steals waiting presses from
+	 * a busy neighbour. 1 (the default) runs your ElevatorController alone;
+	 * ignored when 'collective' is set.
+	 */
+	public int zones = 1;
+	/**
+	 * Set to 'true' to park idle elevators: each controller keeps a DemandMap
+	 * of recent presses per floor, and a car with nothing to do drives to the
+	 * hottest floor that no other idle car is covering, to wait for the next
+	 * call there. Cars only park while buttons are still being pressed.
+	 * Ignored when 'collective' is set.
+	 */
+	public boolean parking = false;
+	/**
+	 * How long, in (simulated) milliseconds, it takes a press to count half as
+	 * much towards its floor's demand when 'parking' is set.
+	 */
+	public long parkingHalfLife = 60000;
+	/**
+	 * The most floors an elevator moves in one tick once it is up to speed.
+	 * With 1 (the default) elevators move one floor a tick and check every
+	 * floor they reach, as they always have. With more they speed up and
+	 * slow down by 'acceleration' floors a tick, run through the floors
+	 * between stops without checking them, and only open their doors on
+	 * reaching their target floor. The elevator and button classes are the
+	 * same either way.
+	 */
+	public int speed = 1;
+	/**
+	 * How many floors a tick an elevator gains when speeding up, and loses
+	 * when slowing down, when 'speed' is more than 1.
+	 */
+	public int acceleration = 1;
+	/**
+	 * When set, the monitor records a compact binary snapshot of every 
+	 * elevator each tick into this memory-mapped file instead of printing 
+	 * frames, so watching a stress run costs next to nothing. Render the file
+	 * afterwards with StateRenderer.
+	 */
+	public File stateFile = null;
+	/**
+	 * The number of most recent frames kept in 'stateFile'.
+	 */
+	public int stateFrames = 1 << 16;
+	/**
+	 * Seeds the press times and destinations of every button. Two runs with
+	 * the same seed and parameters press the same buttons for the same
+	 * people; on a virtual clock they replay exactly. Printed in the report.
+	 */
+	public long seed = ThreadLocalRandom.current().nextLong();
+	/**
+	 * When set, every press is written to this file as it happens (see
+	 * TraceRecorder), so the workload can be kept and fed to later runs.
+	 */
+	public File recordTrace = null;
+	/**
+	 * When set, the presses come from this trace (see TraceReader) instead of
+	 * from the buttons' random schedules: each one is made on its floor's
+	 * button, with its recorded destination, at its recorded time, and
+	 * 'testLengthSeconds' and 'pressCount' are ignored. run() makes no final
+	 * presses of its own, since a trace recorded with 'recordTrace' already
+	 * holds those of the run it came from, so replaying it repeats that run.
+	 */
+	public File replayTrace = null;
+	/**
+	 * Set to 'true' to print nothing while running: no frames, no report and
+	 * no verdict. Used by Sweep, where the results are read afterwards
+	 * through getDelivered(), getLatencies() and the like.
+	 */
+	public boolean quiet = false;
+	/**
+	 * The engine driving this run, or null when running in real time.
+	 */
+	VirtualClock clock;
+	/**
+	 * The workers ticking the elevators when 'tickPool' is set, or null.
+	 */
+	TickPool ticks;
+	/**
+	 * Every controller, one per zone. The first also serves floor 0, where
+	 * the final presses of run() are made.
+	 */
+	private AbstractElevatorController[] controls;
+	
+	/**
+	 * The id of the next elevator made for this simulation.
+	 */
+	private final AtomicInteger ids = new AtomicInteger('A');
+	/**
+	 * How long the run took, in (simulated) milliseconds, and how many floors
+	 * its elevators traveled; set as it ends.
+	 */
+	private long elapsed;
+	private long traveled;
+	/**
+	 * Source of the buttons' generators, made from 'seed' on first use.
+	 */
+	private SplittableRandom seeds;
+	private final ReentrantLock seedsLock = new ReentrantLock();
+	private TraceRecorder trace;
+	private TraceReader replay;
+	
+	/**
+	 * The number of people who have reached their destinations.
+	 */
+	private final AtomicInteger delivered = new AtomicInteger();
+	/*
+	 * What is left to do: people spawned but not yet delivered, buttons (and
+	 * the final burst of presses in run()) that have not finished pressing,
+	 * and elevators that were moving at the end of their last tick. The run
+	 * is over the moment all three reach zero, which releases 'finished'.
+	 */
+	private final AtomicInteger outstanding = new AtomicInteger();
+	private final AtomicInteger pressing = new AtomicInteger();
+	private final AtomicInteger moving = new AtomicInteger();
+	private final CountDownLatch finished = new CountDownLatch(1);
+	/**
+	 * Wait, ride and total times of everyone delivered.
+	 */
+	final Latencies latencies;
+	
+	/**
+	 * Called as 'p' presses a button.
+	 */
+	void spawned(Person p) {
+		outstanding.incrementAndGet();
+		if (trace != null)
+			trace.record(p.getStartingFloor(), p.getDestination());
+	}
+	
+	/**
+	 * @return a new generator, split from 'seed'. Buttons split theirs as
+	 * they are made, in floor order, so each floor gets the same one every
+	 * time.
+	 */
+	SplittableRandom split() {
+		seedsLock.lock();
+		try {
+			if (seeds == null)
+				seeds = new SplittableRandom(seed);
+			return seeds.split();
+		} finally {
+			seedsLock.unlock();
+		}
+	}
+	
+	/**
+	 * Called as 'p' gets off 'e' at their destination.
+	 */
+	void delivered(Person p, AbstractElevator e) {
+		delivered.incrementAndGet();
+		latencies.record(p, e);
+		if (outstanding.decrementAndGet() == 0)
+			checkFinished();
+	}
+	
+	/**
+	 * Called by each button once it has pressed 'pressCount' times, and once
+	 * by run() after its final presses.
+	 */
+	void donePressing() {
+		if (pressing.decrementAndGet() == 0)
+			checkFinished();
+	}
+	
+	/**
+	 * @return true until every button (and the final burst of presses in
+	 * run()) has finished pressing
+	 */
+	boolean isPressing() {
+		return pressing.get() > 0;
+	}
+	
+	/**
+	 * Called by an elevator's tick when it starts or stops moving.
+	 */
+	void moving(boolean started) {
+		if (started)
+			moving.incrementAndGet();
+		else if (moving.decrementAndGet() == 0)
+			checkFinished();
+	}
+	
+	private void checkFinished() {
+		if (pressing.get() == 0 && outstanding.get() == 0 && moving.get() == 0)
+			finished.countDown();
+	}
+	
+	/**
+	 * @return true once everyone has been delivered and every elevator has
+	 * stopped, or the simulation has failed
+	 */
+	boolean isFinished() {
+		return finished.getCount() == 0;
+	}
+	
+	/**
+	 * @return the id for the next elevator of this simulation: 'A', 'B', etc.
+	 */
+	char nextId() {
+		return (char) ids.getAndIncrement();
+	}
+	
+	/**
+	 * @return whether the run passed; only meaningful once run() has returned
+	 */
+	public boolean passed() {
+		return passed;
+	}
+	
+	/**
+	 * @return the number of people delivered so far
+	 */
+	public int getDelivered() {
+		return delivered.get();
+	}
+	
+	/**
+	 * @return how long the finished run took, in simulated milliseconds when
+	 * on a virtual clock
+	 */
+	public long getElapsedMillis() {
+		return elapsed;
+	}
+	
+	/**
+	 * @return the number of floors the elevators traveled in the finished run
+	 */
+	public long getTraveled() {
+		return traveled;
+	}
+	
+	/**
+	 * @return the wait, ride and total time histograms of this simulation,
+	 * for the building as a whole and per floor and per elevator
+	 */
+	public Latencies getLatencies() {
+		return latencies;
+	}
 
 	
 
 
 	/**
-	 * Condition wrapper class that ensures their use.
+	 * @return the current time in nanoseconds: virtual time when the current
+	 * simulation runs on a virtual clock, System.nanoTime() otherwise
+	 */
+	public static long nanoTime() {
+		Simulation sim = current();
+		VirtualClock clock = sim == null ? null : sim.clock;
+		return clock != null ? clock.now() * 1000000L : System.nanoTime();
+	}
+	
+	/**
+	 * @return a new, unstarted thread for 'r' from the current simulation's
+	 * 'threads' factory
+	 */
+	public static Thread newThread(Runnable r) {
+		return current().threads.newThread(r);
+	}
+	
+	/**
+	 * A factory for virtual threads, for use as 'threads'. The buttons,
+	 * elevators and controller spend nearly all of their time in Thread.sleep
+	 * or Condition.await, both of which unmount a virtual thread from its
+	 * carrier, and all of the provided locking goes through ReentrantLock or
+	 * StampedLock rather than 'synchronized', so none of it pins a carrier
+	 * thread.
+	 * 
+	 * @throws UnsupportedOperationException before Java 21
+	 */
+	public static ThreadFactory virtualThreads() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+					.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException("Virtual threads need Java 21 or later.", e);
+		}
+	}
+	
+	/**
+	 * Condition wrapper class that ensures their use. It only wraps a
+	 * ReentrantLock Condition, so awaiting it never pins a virtual thread.
 	 */
 	public static final class TestingCondition {
 		private Condition cond;
@@ -156,18 +507,38 @@ public final class Simulation {
 	private final class Monitor implements Runnable{
 		private Thread thread;
 		private AbstractElevatorController control;
+		private Set<AbstractElevator> elevators;
 		private AbstractButton[] buttons;
+		private StateRecorder recorder;
 		
-		public Monitor(AbstractElevatorController control, AbstractButton[] buttons) {
+		public Monitor(AbstractElevatorController control, Set<AbstractElevator> elevators,
+				AbstractButton[] buttons) {
 			this.control = control;
+			this.elevators = elevators;
 			this.buttons = buttons;
-			thread = new Thread(this);
-			
+			thread = Simulation.newThread(this);
+			if (stateFile != null) {
+				try {
+					recorder = new StateRecorder(stateFile, stateFrames, elevators, buttons);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+		
+		/**
+		 * Prints one frame, or records it when 'stateFile' is set.
+		 */
+		public void frame() {
+			if (recorder != null)
+				recorder.record();
+			else if (!quiet)
+				control.printState(buttons, elevators);
 		}
 		
 		public void run() {
 			while (!TERMINATE) {
-				control.printState(buttons);
+				frame();
 				try {
 					Thread.sleep(delayMilliseconds);
 				} catch (InterruptedException e) {
@@ -180,107 +551,336 @@ public final class Simulation {
 			thread.start();
 		}
 		
+		public void stop() {
+			thread.interrupt();
+			if (recorder != null)
+				recorder.close();
+		}
+		
 	}
 	
 	
 	/**
-	 * Runs a simulation. Only one simulation should be running at a time (thus the static
-	 * 'current' field).
+	 * Runs a simulation. Each Simulation can be run once. Several may run at
+	 * the same time on different threads (see Sweep): the threads started
+	 * by a run inherit it as their current() simulation.
 	 * 
 	 * @return whether the tests passed
 	 */
-	private boolean run() {
+	public boolean run() {
 		current = this;
+		running.set(this);
+		try {
+			return test();
+		} finally {
+			if (trace != null)
+				trace.close();
+			if (replay != null) {
+				try {
+					replay.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			running.remove();
+		}
+	}
+	
+	private boolean test() {
 		// ---- Initialize Test ---- //
-		ElevatorController control = new ElevatorController();
-		HashSet <AbstractElevator> elevators = new HashSet<AbstractElevator>();
-		for (int i = 0; i < numElevators; i++)
-			elevators.add(new Elevator(control));
+		if (speed < 1 || acceleration < 1)
+			throw new IllegalArgumentException("speed and acceleration must be at least 1");
+		if (replayTrace != null) {
+			try {
+				replay = new TraceReader(replayTrace);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			if (replay.getFloors() > numFloors)
+				throw new IllegalArgumentException(replayTrace + " needs " + replay.getFloors() + " floors");
+		}
+		controls = newControllers();
+		AbstractElevatorController control = controls[0];
+		// in id order, so ticks and controllers visit the elevators the same way every run
+		HashSet <AbstractElevator> elevators = new LinkedHashSet<AbstractElevator>();
+		for (int z = 0; z < controls.length; z++) {
+			HashSet <AbstractElevator> zone = new LinkedHashSet<AbstractElevator>();
+			for (int i = z * numElevators / controls.length; i < (z + 1) * numElevators / controls.length; i++)
+				zone.add(newElevator(controls[z]));
+			controls[z].setElevators(zone);
+			elevators.addAll(zone);
+		}
 		//HashSet <AbstractButton> b = new HashSet<AbstractButton>();
 		AbstractButton[] buttons = new AbstractButton[numFloors];
 		for (int i = 0; i < numFloors; i++)
-			buttons[i] = new Button(i, control);
-		control.setElevators(elevators);
+			buttons[i] = new Button(i, controls[i * controls.length / numFloors]);
+		SplittableRandom burst = split();
+		if (virtualClock)
+			clock = new VirtualClock(controls);
+		else if (tickPool)
+			ticks = new TickPool(elevators, Runtime.getRuntime().availableProcessors());
+		if (parking && !collective)
+			for (AbstractElevatorController c : controls)
+				c.demand = new DemandMap(numFloors, parkingHalfLife); // after the clock, so it counts from its start
+		pressing.set(replay != null ? 1 : numFloors + 1);
 
 
 		// ---- Start Test ---- //
-		control.start(); // controller starts the elevators
+		for (AbstractElevatorController c : controls)
+			c.start(); // controller starts the elevators
 		try {
 			Thread.sleep(100);
 		} catch (InterruptedException e1) {
 			e1.printStackTrace();
 		}
-		if (!control.thread.isAlive()) // Test that Controller started properly
-			throw new TestFailure("Controller Terminated Early.");
-		if (!control.thread.getState().equals(Thread.State.WAITING))
-			throw new TestFailure("Controller Needs to Call Await on the Conditions.");
-		for (AbstractButton b : buttons)
-			b.start();
-		Monitor monitor = new Monitor(control, buttons);
+		for (AbstractElevatorController c : controls) {
+			if (!c.thread.isAlive()) // Test that Controller started properly
+				throw new TestFailure("Controller Terminated Early.");
+			if (!c.thread.getState().equals(Thread.State.WAITING))
+				throw new TestFailure("Controller Needs to Call Await on the Conditions.");
+		}
+		if (recordTrace != null) {
+			try {
+				trace = new TraceRecorder(recordTrace, numFloors);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		if (clock != null)
+			return runVirtual(control, elevators, buttons, burst);
+		long start = System.currentTimeMillis();
+		if (ticks != null)
+			ticks.start();
+		if (replay == null)
+			for (AbstractButton b : buttons)
+				b.start();
+		Monitor monitor = new Monitor(control, elevators, buttons);
 		monitor.start();
 
 		// ---- Sleep While Buttons are Pressing ---- //
 		try {
-			Thread.sleep(testLengthSeconds*1000);
+			if (replay != null)
+				replay(buttons);
+			else
+				Thread.sleep(testLengthSeconds*1000);
 		} catch (InterruptedException e1) {
 			e1.printStackTrace();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
 		
-		for (int i = 0; i < numElevators+1; i++)
-			buttons[0].spawnAndPress(); // ensure that elevatorFinished.await is called
+		if (replay == null) // a trace holds its own final presses
+			for (int i = 0; i < numElevators*capacity+1; i++)
+				buttons[0].spawnAndPress(burst.nextInt(numFloors)); // ensure that elevatorFinished.await is called
 
 
-		// ---- Check if Test is Complete ---- //
-		while (!TERMINATE) {
-			try {
-				Thread.sleep(delayMilliseconds); 
-			} catch (InterruptedException e1) {
-				e1.printStackTrace();
-			}
-			boolean stillGoing = false;
-			for (AbstractElevator e : elevators) 
-				if (e.isMoving()) // if no elevator is moving...
-					stillGoing = true;
-			try {
-				Thread.sleep(delayMilliseconds); 
-			} catch (InterruptedException e1) {
-				e1.printStackTrace();
-			}
-			for (AbstractElevator e : elevators) 
-				if (e.isMoving()) // if no elevator is moving again... stop
-					stillGoing = true;
-			
-			if (!stillGoing) {
-				for (AbstractButton b: buttons)
-					if (!b.done()) // if stopping, everyone should be delivered
-						throw new TestFailure( "Did Not Drop Everyone Off!");
-				if (!control.thread.getState().equals(Thread.State.WAITING))
-					throw new TestFailure( "Test Ended with Controller in "
-							+ "Non-Awaiting State");
-				if (!control.buttonPressed.awaited)
-					throw new TestFailure( "Did not call await on buttonPressed");
-				if (!control.buttonPressed.signalled)
-					throw new TestFailure( "Did not call signalAll on buttonPressed");
-				if (!control.elevatorFinished.awaited)
-					throw new TestFailure( "Did not call await on elevatorFinished");
-				if (!control.elevatorFinished.signalled)
-					throw new TestFailure( "Did not call signalAll on elevatorFinished");
-				TERMINATE = true; // Tell all threads to stop
-				control.thread.interrupt(); 
-				monitor.thread.interrupt();
-			}
+		donePressing();
+
+
+		// ---- Wait Until Everyone is Delivered ---- //
+		try {
+			finished.await();
+		} catch (InterruptedException e1) {
+			e1.printStackTrace();
+		}
+		if (!TERMINATE) {
+			for (AbstractElevatorController c : controls)
+				c.settle();
+			verify(control);
+			TERMINATE = true; // Tell all threads to stop
+			for (AbstractElevatorController c : controls)
+				c.thread.interrupt(); 
 		}
-		if (passed)
+		if (ticks != null)
+			ticks.stop();
+		monitor.stop();
+		report(System.currentTimeMillis() - start, elevators);
+		if (passed && !quiet)
 			System.out.println("All tests passed!");
 		return passed;
 	}
 
 	
+	/**
+	 * The virtual-clock version of the body of run(). Presses, ticks and
+	 * frames become events on 'clock', which then runs on this thread until
+	 * everyone has been delivered.
+	 * 
+	 * @return whether the tests passed
+	 */
+	private boolean runVirtual(final AbstractElevatorController control,
+			final Set<AbstractElevator> elevators, final AbstractButton[] buttons,
+			final SplittableRandom burst) {
+		for (AbstractElevator e : elevators)
+			clock.repeat(delayMilliseconds, e::tick);
+		final Monitor monitor = new Monitor(control, elevators, buttons);
+		clock.repeat(delayMilliseconds, monitor::frame);
+		
+		Runnable last = () -> {
+			for (int i = 0; i < numElevators*capacity+1; i++)
+				buttons[0].spawnAndPress(burst.nextInt(numFloors)); // ensure that elevatorFinished.await is called
+			donePressing();
+		};
+		if (replay != null) {
+			scheduleReplay(buttons, this::donePressing); // a trace holds its own final presses
+		} else {
+			for (AbstractButton b : buttons)
+				b.schedule(clock);
+			clock.schedule(testLengthSeconds*1000L, last);
+		}
+		
+		long start = System.currentTimeMillis();
+		clock.run();
+		if (!quiet)
+			System.out.println("Simulated " + clock.now() + " ms in " 
+					+ (System.currentTimeMillis() - start) + " ms.");
+		if (!TERMINATE) {
+			verify(control);
+			TERMINATE = true; // Tell all threads to stop
+			for (AbstractElevatorController c : controls)
+				c.thread.interrupt();
+		}
+		monitor.stop();
+		report(clock.now(), elevators);
+		if (passed && !quiet)
+			System.out.println("All tests passed!");
+		return passed;
+	}
+	
+	/**
+	 * Makes the presses of 'replay' in real time, sleeping until each is due.
+	 */
+	private void replay(AbstractButton[] buttons) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		while (replay.next() && !TERMINATE) {
+			long due = replay.getTime() - (System.nanoTime() - start) / 1000000;
+			if (due > 0)
+				Thread.sleep(due);
+			buttons[replay.getFloor()].spawnAndPress(replay.getDestination());
+		}
+	}
+	
+	/**
+	 * Schedules the next press of 'replay' on 'clock', each press scheduling
+	 * the one after it, and 'last' after the final one, so only one record is
+	 * read ahead at a time.
+	 */
+	private void scheduleReplay(final AbstractButton[] buttons, final Runnable last) {
+		boolean more;
+		try {
+			more = replay.next();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if (!more) {
+			last.run();
+			return;
+		}
+		clock.schedule(Math.max(0, replay.getTime() - clock.now()), () -> {
+			buttons[replay.getFloor()].spawnAndPress(replay.getDestination());
+			scheduleReplay(buttons, last);
+		});
+	}
+	
+	/**
+	 * @return the controller, or one DispatchingController per zone, each
+	 * able to steal from the zones above and below it
+	 */
+	private AbstractElevatorController[] newControllers() {
+		int n = collective ? 1 : Math.max(1, Math.min(zones, Math.min(numFloors, numElevators)));
+		if (n == 1) {
+			AbstractElevatorController control = dispatch != null
+					? new DispatchingController(dispatch) : new ElevatorController();
+			if (collective)
+				control.calls = new HallCalls(numFloors);
+			return new AbstractElevatorController[] { control };
+		}
+		DispatchingController[] controls = new DispatchingController[n];
+		for (int z = 0; z < n; z++)
+			controls[z] = new DispatchingController(dispatch != null ? dispatch : DispatchStrategy.NEAREST_CAR);
+		for (int z = 0; z < n; z++) {
+			if (z > 0)
+				controls[z].neighbours.add(controls[z - 1]);
+			if (z < n - 1)
+				controls[z].neighbours.add(controls[z + 1]);
+		}
+		return controls;
+	}
+	
+	private AbstractElevator newElevator(AbstractElevatorController control) {
+		if (collective)
+			return new CollectiveElevator(control);
+		return capacity > 1 ? new Car(control) : new Elevator(control);
+	}
+	
+	/**
+	 * Records and (unless 'quiet') prints the delivery throughput of a run that
+	 * lasted 'millis' (simulated) milliseconds.
+	 */
+	private void report(long millis, Set<AbstractElevator> elevators) {
+		elapsed = millis;
+		traveled = 0;
+		for (AbstractElevator e : elevators)
+			traveled += e.traveled;
+		if (quiet)
+			return;
+		System.out.println("Seed " + seed + ".");
+		System.out.printf("Delivered %d people in %.1f s (%.2f per second, capacity %d).\n",
+				delivered.get(), millis / 1000.0, delivered.get() * 1000.0 / millis, capacity);
+		System.out.println("Elevators traveled " + traveled + " floors in total.");
+		latencies.print(System.out, false);
+	}
+	
+	/**
+	 * Called once everyone has been delivered: the controller should have used
+	 * its conditions and be waiting for more presses.
+	 */
+	private void verify(AbstractElevatorController control) {
+		if (outstanding.get() != 0) // if stopping, everyone should be delivered
+			throw new TestFailure( "Did Not Drop Everyone Off!");
+		if (!control.thread.getState().equals(Thread.State.WAITING))
+			throw new TestFailure( "Test Ended with Controller in "
+					+ "Non-Awaiting State");
+		if (!control.buttonPressed.awaited)
+			throw new TestFailure( "Did not call await on buttonPressed");
+		if (!control.buttonPressed.signalled)
+			throw new TestFailure( "Did not call signalAll on buttonPressed");
+		for (AbstractElevatorController c : controls) {
+			if (c == control)
+				continue;
+			if (!c.thread.getState().equals(Thread.State.WAITING))
+				throw new TestFailure( "Test Ended with Controller in "
+						+ "Non-Awaiting State");
+			if (!c.buttonPressed.awaited)
+				throw new TestFailure( "Did not call await on buttonPressed");
+		}
+		if (collective)
+			return; // collective cars are never hailed, so nobody waits for them
+		if (!control.elevatorFinished.awaited)
+			throw new TestFailure( "Did not call await on elevatorFinished");
+		if (!control.elevatorFinished.signalled)
+			throw new TestFailure( "Did not call signalAll on elevatorFinished");
+	}
 	
 	
 	// ----- Main Method Testing ----- \\
 		
+	/**
+	 * The simulation most recently started. Prefer current(), which is right
+	 * even when several simulations run at once.
+	 */
 	public static Simulation current;
+	private static final InheritableThreadLocal<Simulation> running = new InheritableThreadLocal<Simulation>();
+	
+	/**
+	 * @return the simulation the calling thread belongs to: the one it is
+	 * running, or the one that was running when it was started. Falls back to
+	 * 'current' for threads started outside of any run.
+	 */
+	public static Simulation current() {
+		Simulation sim = running.get();
+		return sim != null ? sim : current;
+	}
 	
 	/**
 	 * Run this to test your code.<br>
@@ -0,0 +1,116 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * A cheap alternative to printState for long or fast runs: the monitor writes
+ * a fixed-size binary snapshot of every elevator's floor, target and load,
+ * plus which floors have someone waiting, into a ring of frames in a
+ * memory-mapped file. Recording a frame allocates nothing and writes no
+ * text; StateRenderer turns the file back into printState-style frames
+ * afterwards. <br><br>
+ *
+ * The file starts with a header: a magic number, the floor and elevator
+ * counts, the frame size, the number of frames in the ring, the number of
+ * frames written so far, and the elevator ids. The ring of frames follows.
+ * Each frame is the time in nanoseconds, then floor, target and load for each
+ * elevator as ints, then one bit per floor that has someone waiting.
+ */
+public final class StateRecorder {
+
+	static final int MAGIC = 0x454C5631; // "ELV1"
+	static final int WRITTEN = 20; // offset of the frame count in the header
+
+	private final MappedByteBuffer buffer;
+	private final AbstractElevator[] elevators;
+	private final AbstractButton[] buttons;
+	private final int frameSize;
+	private final int frames;
+	private final int start;
+	private final byte[] waiting;
+	private final int[] state = new int[3]; // one elevator's floor, target and load
+	private long written = 0;
+
+	/**
+	 * Creates (or overwrites) 'file' with room for the last 'frames' frames.
+	 */
+	public StateRecorder(File file, int frames, Collection<AbstractElevator> elevators,
+			AbstractButton[] buttons) throws IOException {
+		this.elevators = elevators.toArray(new AbstractElevator[elevators.size()]);
+		Arrays.sort(this.elevators, new Comparator<AbstractElevator>() {
+			public int compare(AbstractElevator a, AbstractElevator b) {
+				return a.id - b.id;
+			}
+		});
+		this.buttons = buttons;
+		this.frames = frames;
+		waiting = new byte[(buttons.length + 7) / 8];
+		frameSize = 8 + 12 * this.elevators.length + waiting.length;
+		start = 28 + 2 * this.elevators.length;
+		long size = start + (long) frameSize * frames;
+		if (size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many frames for one mapping: " + frames);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} finally {
+			raf.close(); // the mapping stays valid
+		}
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, buttons.length);
+		buffer.putInt(8, this.elevators.length);
+		buffer.putInt(12, frameSize);
+		buffer.putInt(16, frames);
+		buffer.putLong(WRITTEN, 0);
+		for (int i = 0; i < this.elevators.length; i++)
+			buffer.putChar(28 + 2 * i, this.elevators[i].id);
+	}
+
+	/**
+	 * Writes one frame of the current state, overwriting the oldest once the
+	 * ring is full.
+	 */
+	public void record() {
+		int at = start + (int) (written % frames) * frameSize;
+		buffer.putLong(at, Simulation.nanoTime());
+		at += 8;
+		for (AbstractElevator e : elevators) {
+			e.snapshot(state); // without waiting for the car's tick
+			buffer.putInt(at, state[0]);
+			buffer.putInt(at + 4, state[1]);
+			buffer.putInt(at + 8, state[2] > 0 || e.carrying ? Math.max(1, state[2]) : 0);
+			at += 12;
+		}
+		Arrays.fill(waiting, (byte) 0);
+		for (int f = 0; f < buttons.length; f++)
+			if (buttons[f].waiting())
+				waiting[f >> 3] |= (byte) (1 << (f & 7));
+		for (byte b : waiting)
+			buffer.put(at++, b);
+		buffer.putLong(WRITTEN, ++written);
+	}
+
+	/**
+	 * Flushes the recorded frames to the file.
+	 */
+	public void close() {
+		buffer.force();
+	}
+
+	static ByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+	}
+
+}
@@ -0,0 +1,79 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Prints the frames in a file written by StateRecorder, in the same layout
+ * as printState, after the run is over. <br><br>
+ *
+ * <pre>
+ * 	java StateRenderer state.bin [frames]
+ * </pre>
+ * prints the last 'frames' frames (all that the ring holds by default).
+ */
+public final class StateRenderer {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: java StateRenderer file [frames]");
+			return;
+		}
+		ByteBuffer buffer = StateRecorder.map(new File(args[0]));
+		if (buffer.getInt(0) != StateRecorder.MAGIC)
+			throw new IOException(args[0] + " was not written by StateRecorder");
+		int floors = buffer.getInt(4);
+		int elevators = buffer.getInt(8);
+		int frameSize = buffer.getInt(12);
+		int frames = buffer.getInt(16);
+		long written = buffer.getLong(StateRecorder.WRITTEN);
+		char[] ids = new char[elevators];
+		for (int i = 0; i < elevators; i++)
+			ids[i] = buffer.getChar(28 + 2 * i);
+		int start = 28 + 2 * elevators;
+
+		long kept = Math.min(written, frames);
+		long count = args.length > 1 ? Math.min(kept, Long.parseLong(args[1])) : kept;
+		long first = written - kept;
+		long origin = buffer.getLong(start + (int) (first % frames) * frameSize);
+		for (long n = written - count; n < written; n++) {
+			int at = start + (int) (n % frames) * frameSize;
+			render(buffer, at, n, origin, floors, ids);
+		}
+	}
+
+	private static void render(ByteBuffer buffer, int at, long n, long origin, int floors, char[] ids) {
+		long time = buffer.getLong(at);
+		StringBuilder[] rows = new StringBuilder[floors];
+		for (int f = 0; f < floors; f++)
+			rows[f] = new StringBuilder();
+		int e = at + 8;
+		for (char id : ids) {
+			int floor = buffer.getInt(e);
+			int target = buffer.getInt(e + 4);
+			int load = buffer.getInt(e + 8);
+			if (rows[floor].length() > 0)
+				rows[floor].append(", ");
+			rows[floor].append(id).append('(').append(load > 0 ? load : "").append(")->").append(target);
+			e += 12;
+		}
+		int width = 25;
+		for (StringBuilder row : rows)
+			width = Math.max(width, row.length() + 2);
+		String title = "+----------------frame-" + n + " (" + (time - origin) / 1000000 + " ms)";
+		StringBuilder line = new StringBuilder(title);
+		int total = String.format("| floor %2s: %7s\t%" + width + "s |", "", "", "").length() + 2;
+		while (line.length() < total)
+			line.append('-');
+		System.out.println(line.append('+'));
+		for (int f = floors - 1; f >= 0; f--) {
+			boolean waiting = (buffer.get(e + (f >> 3)) & (1 << (f & 7))) != 0;
+			System.out.printf("| floor %2s: %7s\t%" + width + "s |\n", f + "",
+					waiting ? "waiting" : "", "[" + rows[f] + "]");
+		}
+		line.setLength(1);
+		while (line.length() < total)
+			line.append('-');
+		System.out.println(line.append('+') + "\n");
+	}
+
+}
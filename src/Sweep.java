@@ -0,0 +1,208 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runs a grid of simulations in parallel, one per combination of floor
+ * count, elevator count, 'pressCount' and dispatch policy, and prints one
+ * table of the results. <br><br>
+ *
+ * Each simulation runs quietly on a virtual clock, on its own thread from a
+ * pool with one thread per core. Simulations keep their own context (see
+ * Simulation.current()), so they do not interfere with each other. Every
+ * simulation gets the same 'seed', so the policies are compared on the same
+ * presses. <br><br>
+ *
+ * Run with the number of threads, a seed, the elevators' capacity and speed
+ * and the policies to compare, or nothing to use every core, a random seed,
+ * single passenger elevators moving a floor a tick and every policy:
+ * <pre>
+ * 	java Sweep [threads] [seed=N] [capacity=N] [speed=N] [controller first-free nearest-car estimated-arrival same-direction destination min-cost collective zoned parked]
+ * </pre>
+ * 'controller' is your ElevatorController, 'collective' the provided SCAN/LOOK
+ * mode, 'zoned' three zones of NEAREST_CAR, 'parked' NEAREST_CAR with idle
+ * cars parked by demand, and the rest the DispatchStrategy constants.
+ */
+public final class Sweep {
+
+	private static final int[] FLOORS = { 25, 100 };
+	private static final int[] ELEVATORS = { 5, 20 };
+	private static final int[] PRESS_COUNTS = { 2, 8 };
+	private static final String[] POLICIES = { "controller", "first-free", "nearest-car",
+			"estimated-arrival", "same-direction", "destination", "min-cost", "collective",
+			"zoned", "parked" };
+	private static final int TEST_LENGTH_SECONDS = 300;
+	private static final int DELAY_MILLISECONDS = 500;
+
+	public static void main(String[] args) throws InterruptedException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		long seed = ThreadLocalRandom.current().nextLong();
+		int capacity = 1, speed = 1;
+		ArrayList<String> policies = new ArrayList<String>();
+		for (String a : args) {
+			if (a.matches("\\d+"))
+				threads = Integer.parseInt(a);
+			else if (a.startsWith("seed="))
+				seed = Long.parseLong(a.substring(5));
+			else if (a.startsWith("capacity="))
+				capacity = Integer.parseInt(a.substring(9));
+			else if (a.startsWith("speed="))
+				speed = Integer.parseInt(a.substring(6));
+			else
+				policies.add(a);
+		}
+		if (policies.isEmpty())
+			for (String p : POLICIES)
+				policies.add(p);
+
+		ArrayList<Point> grid = new ArrayList<Point>();
+		for (int floors : FLOORS)
+			for (int elevators : ELEVATORS)
+				for (int presses : PRESS_COUNTS)
+					for (String policy : policies)
+						grid.add(new Point(floors, elevators, presses, policy, seed, capacity, speed));
+		long start = System.currentTimeMillis();
+		run(grid, threads);
+		print(grid, System.out);
+		System.out.printf("%d simulations on %d threads in %.1f s, seed %d, capacity %d, speed %d.\n",
+				grid.size(), threads, (System.currentTimeMillis() - start) / 1000.0, seed, capacity, speed);
+	}
+
+	/**
+	 * Runs every point of 'grid' on a pool of 'threads' threads and waits for
+	 * them all.
+	 */
+	public static void run(List<Point> grid, int threads) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+			for (Point p : grid)
+				futures.add(pool.submit((Callable<Void>) p));
+			for (Future<?> f : futures) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Prints one row per point of 'grid'. Latencies are in (simulated)
+	 * milliseconds.
+	 */
+	public static void print(List<Point> grid, PrintStream out) {
+		out.printf("%6s %9s %7s %-17s %-6s %9s %8s %8s %9s %8s %8s %9s\n", "floors", "elevators",
+				"presses", "policy", "result", "delivered", "sim s", "per s", "traveled",
+				"wait p50", "wait p99", "total p99");
+		for (Point p : grid) {
+			if (p.error != null) {
+				out.printf("%6d %9d %7d %-17s %-6s %s\n", p.floors, p.elevators, p.presses,
+						p.policy, "FAIL", p.error);
+				continue;
+			}
+			Simulation sim = p.sim;
+			Latencies.Group building = sim.getLatencies().getBuilding();
+			long millis = Math.max(1, sim.getElapsedMillis());
+			out.printf("%6d %9d %7d %-17s %-6s %9d %8.1f %8.2f %9d %8d %8d %9d\n", p.floors,
+					p.elevators, p.presses, p.policy, sim.passed() ? "pass" : "FAIL",
+					sim.getDelivered(), millis / 1000.0, sim.getDelivered() * 1000.0 / millis,
+					sim.getTraveled(), building.wait.getPercentile(0.5) / 1000000,
+					building.wait.getPercentile(0.99) / 1000000,
+					building.total.getPercentile(0.99) / 1000000);
+		}
+	}
+
+	/**
+	 * One cell of the grid: the parameters, then the finished simulation or
+	 * the reason it could not run.
+	 */
+	public static final class Point implements Callable<Void> {
+		public final int floors;
+		public final int elevators;
+		public final int presses;
+		public final String policy;
+		public final long seed;
+		public final int capacity;
+		public final int speed;
+		private Simulation sim;
+		private String error;
+
+		public Point(int floors, int elevators, int presses, String policy, long seed,
+				int capacity, int speed) {
+			this.floors = floors;
+			this.elevators = elevators;
+			this.presses = presses;
+			this.policy = policy;
+			this.seed = seed;
+			this.capacity = capacity;
+			this.speed = speed;
+		}
+
+		public Point(int floors, int elevators, int presses, String policy, long seed,
+				int capacity) {
+			this(floors, elevators, presses, policy, seed, capacity, 1);
+		}
+
+		public Point(int floors, int elevators, int presses, String policy, long seed) {
+			this(floors, elevators, presses, policy, seed, 1);
+		}
+
+		@Override
+		public Void call() {
+			Simulation s = new Simulation(floors, elevators, TEST_LENGTH_SECONDS,
+					DELAY_MILLISECONDS, presses, capacity);
+			s.virtualClock = true;
+			s.quiet = true;
+			s.seed = seed;
+			s.speed = speed;
+			if (policy.equals("collective"))
+				s.collective = true;
+			else if (policy.equals("zoned"))
+				s.zones = 3;
+			else if (policy.equals("parked")) {
+				s.dispatch = DispatchStrategy.NEAREST_CAR;
+				s.parking = true;
+			} else if (policy.equals("first-free"))
+				s.dispatch = DispatchStrategy.FIRST_FREE;
+			else if (policy.equals("nearest-car"))
+				s.dispatch = DispatchStrategy.NEAREST_CAR;
+			else if (policy.equals("estimated-arrival"))
+				s.dispatch = DispatchStrategy.ESTIMATED_ARRIVAL;
+			else if (policy.equals("same-direction"))
+				s.dispatch = DispatchStrategy.SAME_DIRECTION;
+			else if (policy.equals("destination"))
+				s.dispatch = DispatchStrategy.DESTINATION;
+			else if (policy.equals("min-cost"))
+				s.dispatch = DispatchStrategy.MIN_COST;
+			else if (!policy.equals("controller")) {
+				error = "unknown policy";
+				return null;
+			}
+			try {
+				s.run();
+				sim = s;
+			} catch (RuntimeException e) {
+				error = e.toString();
+			}
+			return null;
+		}
+
+		/**
+		 * @return the finished simulation, or null if it failed to run
+		 */
+		public Simulation getSimulation() {
+			return sim;
+		}
+	}
+
+}
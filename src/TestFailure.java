@@ -10,7 +10,7 @@ public final class TestFailure extends RuntimeException {
 
 	public TestFailure(String id) {
 		super(id);
-		Simulation.current.TERMINATE = true;
-		Simulation.current.fail();
+		Simulation.current().TERMINATE = true;
+		Simulation.current().fail();
 	}
 }
\ No newline at end of file
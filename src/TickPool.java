@@ -0,0 +1,88 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * Engine used in place of one looping thread per elevator when a Simulation
+ * is run with 'tickPool' set. <br><br>
+ *
+ * A fixed number of worker threads, one per core at most, share the
+ * elevators between them, each taking every n-th car by id. Every
+ * 'delayMilliseconds' each worker runs the usual locked tick of each of its
+ * cars in turn, so shouldPickUp, pickUp, shouldOffload and offload are
+ * called exactly as run() would call them. Ticks are kept on a fixed
+ * schedule from the start of the run rather than sleeping a full delay
+ * after each one, so slow ticks do not make the cars drift; a worker that
+ * falls a whole period behind skips ahead instead of moving its cars twice.
+ */
+final class TickPool {
+
+	private final Simulation sim;
+	private final Thread[] workers;
+	/**
+	 * System.nanoTime() at start(); tick n of every worker is due 'n' delays
+	 * after it.
+	 */
+	private long start;
+
+	/**
+	 * Splits 'elevators' among 'size' workers (but no more workers than
+	 * there are elevators).
+	 */
+	TickPool(Collection<AbstractElevator> elevators, int size) {
+		sim = Simulation.current();
+		AbstractElevator[] cars = elevators.toArray(new AbstractElevator[elevators.size()]);
+		Arrays.sort(cars, new Comparator<AbstractElevator>() {
+			public int compare(AbstractElevator a, AbstractElevator b) {
+				return a.id - b.id;
+			}
+		});
+		size = Math.max(1, Math.min(size, cars.length));
+		workers = new Thread[size];
+		for (int w = 0; w < size; w++) {
+			ArrayList<AbstractElevator> part = new ArrayList<AbstractElevator>();
+			for (int i = w; i < cars.length; i += size)
+				part.add(cars[i]);
+			workers[w] = Simulation.newThread(new Worker(
+					part.toArray(new AbstractElevator[part.size()])));
+		}
+	}
+
+	void start() {
+		start = System.nanoTime();
+		for (Thread t : workers)
+			t.start();
+	}
+
+	void stop() {
+		for (Thread t : workers)
+			t.interrupt();
+	}
+
+	private final class Worker implements Runnable {
+		private final AbstractElevator[] cars;
+
+		Worker(AbstractElevator[] cars) {
+			this.cars = cars;
+		}
+
+		public void run() {
+			long period = sim.delayMilliseconds * 1000000L;
+			long n = 0;
+			while (!sim.TERMINATE) {
+				for (AbstractElevator car : cars)
+					car.tick();
+				n = Math.max(n + 1, (System.nanoTime() - start) / period + 1);
+				long due = start + n * period - System.nanoTime();
+				try {
+					if (due > 0)
+						Thread.sleep(due / 1000000, (int) (due % 1000000));
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+}
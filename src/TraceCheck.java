@@ -0,0 +1,67 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Checks that replaying a trace repeats the run it was recorded from: runs a
+ * seeded simulation on a virtual clock with 'recordTrace' set, replays the
+ * trace in a second simulation with the same parameters, and compares how
+ * many people each delivered and how long each took. <br><br>
+ *
+ * Run with the number of floors, elevators and presses per button, and
+ * optionally a seed:
+ * <pre>
+ * 	java TraceCheck [floors elevators presses] [seed=N]
+ * </pre>
+ * Prints both runs and exits with status 1 if they differ.
+ */
+public final class TraceCheck {
+
+	private static final int TEST_LENGTH_SECONDS = 60;
+	private static final int DELAY_MILLISECONDS = 500;
+
+	public static void main(String[] args) throws IOException {
+		int[] sizes = { 10, 3, 4 };
+		long seed = ThreadLocalRandom.current().nextLong();
+		int n = 0;
+		for (String a : args) {
+			if (a.startsWith("seed="))
+				seed = Long.parseLong(a.substring(5));
+			else if (n < sizes.length)
+				sizes[n++] = Integer.parseInt(a);
+		}
+		File trace = File.createTempFile("trace", ".bin");
+		try {
+			Simulation recorded = simulation(sizes, seed);
+			recorded.recordTrace = trace;
+			recorded.run();
+			Simulation replayed = simulation(sizes, seed);
+			replayed.replayTrace = trace;
+			replayed.run();
+
+			System.out.printf("recorded: %s, %d delivered in %d ms\n",
+					recorded.passed() ? "pass" : "FAIL", recorded.getDelivered(), recorded.getElapsedMillis());
+			System.out.printf("replayed: %s, %d delivered in %d ms\n",
+					replayed.passed() ? "pass" : "FAIL", replayed.getDelivered(), replayed.getElapsedMillis());
+			boolean same = recorded.passed() && replayed.passed()
+					&& recorded.getDelivered() == replayed.getDelivered()
+					&& recorded.getElapsedMillis() == replayed.getElapsedMillis();
+			System.out.println(same ? "The replay repeats the recorded run, seed " + seed + "."
+					: "The replay differs from the recorded run, seed " + seed + ".");
+			if (!same)
+				System.exit(1);
+		} finally {
+			trace.delete();
+		}
+	}
+
+	private static Simulation simulation(int[] sizes, long seed) {
+		Simulation s = new Simulation(sizes[0], sizes[1], TEST_LENGTH_SECONDS,
+				DELAY_MILLISECONDS, sizes[2]);
+		s.virtualClock = true;
+		s.quiet = true;
+		s.seed = seed;
+		return s;
+	}
+
+}
@@ -0,0 +1,113 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads back a trace of presses in the format written by TraceRecorder, one
+ * record at a time. <br><br>
+ *
+ * The file is memory-mapped a window at a time rather than read onto the
+ * heap, so a day-long trace of any size costs no more memory than a short
+ * one. next() moves to the following record, whose fields are then read
+ * with getTime(), getFloor() and getDestination(); nothing is allocated per
+ * record.
+ */
+public final class TraceReader implements Closeable {
+
+	/**
+	 * The number of records mapped at once (8 MB).
+	 */
+	private static final int WINDOW = 1 << 20;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final int floors;
+	private final long records;
+	private MappedByteBuffer window;
+	private long windowStart = 0;
+	private int windowRecords = 0;
+	private long index = -1;
+	private int at;
+
+	/**
+	 * Opens 'file' for reading from the first press.
+	 *
+	 * @throws IOException if 'file' can not be read or was not written by
+	 * TraceRecorder
+	 */
+	public TraceReader(File file) throws IOException {
+		this.file = new RandomAccessFile(file, "r");
+		channel = this.file.getChannel();
+		if (channel.size() < TraceRecorder.HEADER || this.file.readInt() != TraceRecorder.MAGIC) {
+			close();
+			throw new IOException(file + " was not written by TraceRecorder");
+		}
+		floors = this.file.readInt();
+		records = (channel.size() - TraceRecorder.HEADER) / TraceRecorder.RECORD;
+	}
+
+	/**
+	 * @return the number of floors of the building the trace was recorded in
+	 */
+	public int getFloors() {
+		return floors;
+	}
+
+	/**
+	 * @return the number of presses in the trace
+	 */
+	public long size() {
+		return records;
+	}
+
+	/**
+	 * Moves to the next press.
+	 *
+	 * @return false if there are no more presses
+	 */
+	public boolean next() throws IOException {
+		if (index + 1 >= records)
+			return false;
+		index++;
+		if (index >= windowStart + windowRecords) {
+			windowStart = index;
+			windowRecords = (int) Math.min(WINDOW, records - index);
+			window = channel.map(FileChannel.MapMode.READ_ONLY,
+					TraceRecorder.HEADER + index * TraceRecorder.RECORD,
+					(long) windowRecords * TraceRecorder.RECORD);
+		}
+		at = (int) (index - windowStart) * TraceRecorder.RECORD;
+		return true;
+	}
+
+	/**
+	 * @return when the current press was made, in milliseconds since the
+	 * start of the run
+	 */
+	public long getTime() {
+		return window.getInt(at) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @return the floor the current press was made on
+	 */
+	public int getFloor() {
+		return window.getShort(at + 4);
+	}
+
+	/**
+	 * @return the destination of the person who made the current press
+	 */
+	public int getDestination() {
+		return window.getShort(at + 6);
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close(); // mapped windows stay valid
+	}
+
+}
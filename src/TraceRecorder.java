@@ -0,0 +1,77 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes every press of a run to a binary trace file, so the same workload
+ * can be fed to another run, or to another controller, later. <br><br>
+ *
+ * The file starts with a header: a magic number and the number of floors.
+ * Each press follows as one record: the time of the press in milliseconds
+ * since the start of the run as an int, then the floor it was pressed on
+ * and the person's destination as shorts. Records are in time order. <br><br>
+ *
+ * Writes are serialized with a ReentrantLock rather than 'synchronized', so
+ * a Button on a virtual thread that blocks on the file does not pin its
+ * carrier thread.
+ */
+public final class TraceRecorder {
+
+	static final int MAGIC = 0x454C5431; // "ELT1"
+	static final int HEADER = 8;
+	static final int RECORD = 8;
+
+	private final DataOutputStream out;
+	private final long start;
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Creates (or overwrites) 'file' for a building with 'floors' floors. Press
+	 * times are counted from now.
+	 */
+	public TraceRecorder(File file, int floors) throws IOException {
+		start = Simulation.nanoTime();
+		if (floors > Short.MAX_VALUE)
+			throw new IllegalArgumentException("Too many floors for a trace: " + floors);
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(floors);
+	}
+
+	/**
+	 * Appends a press on 'floor', made now, by someone going to 'destination'.
+	 * Buttons call this from their own threads.
+	 */
+	public void record(int floor, int destination) {
+		lock.lock();
+		try {
+			long millis = (Simulation.nanoTime() - start) / 1000000;
+			out.writeInt((int) Math.min(millis, Integer.MAX_VALUE));
+			out.writeShort(floor);
+			out.writeShort(destination);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Flushes and closes the file.
+	 */
+	public void close() {
+		lock.lock();
+		try {
+			out.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
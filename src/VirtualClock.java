@@ -0,0 +1,99 @@
+import java.util.PriorityQueue;
+
+/**
+ * Discrete-event engine used in place of wall-clock time when a Simulation
+ * is run with 'virtualClock' set. <br><br>
+ *
+ * Instead of each elevator and button sleeping on its own thread, the timed
+ * work (elevator ticks, button presses, monitor frames and completion checks)
+ * is kept in a priority queue of events and run one after another on the
+ * simulation thread. The clock jumps straight from one event to the next, so
+ * an hour of building traffic takes only as long as the work itself. <br><br>
+ *
+ * The controller (one per zone in a zoned building) still runs on its own
+ * thread and is driven through the usual lock and conditions. After every
+ * event the clock waits for the controllers to settle back into 'await', so
+ * dispatch happens at the same virtual instant as the press or arrival that
+ * caused it.
+ */
+public final class VirtualClock {
+
+	private final Simulation sim;
+	private final AbstractElevatorController[] controls;
+	private final PriorityQueue<Event> events = new PriorityQueue<Event>();
+	private long now = 0;
+	private long sequence = 0;
+
+	public VirtualClock(AbstractElevatorController... controls) {
+		this.sim = Simulation.current();
+		this.controls = controls;
+	}
+
+	/**
+	 * @return the current virtual time in milliseconds
+	 */
+	public long now() {
+		return now;
+	}
+
+	/**
+	 * Runs 'action' once, 'delay' virtual milliseconds from now. Events that
+	 * fall on the same instant run in the order they were scheduled.
+	 */
+	public void schedule(long delay, Runnable action) {
+		events.add(new Event(now + delay, sequence++, action));
+	}
+
+	/**
+	 * Runs 'action' now and then every 'period' virtual milliseconds until
+	 * the simulation terminates.
+	 */
+	public void repeat(final long period, final Runnable action) {
+		schedule(0, new Runnable() {
+			public void run() {
+				action.run();
+				schedule(period, this);
+			}
+		});
+	}
+
+	/**
+	 * Runs events in time order until everyone has been delivered or the
+	 * simulation terminates.
+	 */
+	void run() {
+		settle();
+		while (!sim.TERMINATE && !sim.isFinished() 
+				&& !events.isEmpty()) {
+			Event e = events.poll();
+			now = e.time;
+			e.action.run();
+			settle();
+		}
+	}
+
+	private void settle() {
+		for (AbstractElevatorController c : controls)
+			c.settle();
+	}
+
+	private static final class Event implements Comparable<Event> {
+		private final long time;
+		private final long sequence;
+		private final Runnable action;
+
+		private Event(long time, long sequence, Runnable action) {
+			this.time = time;
+			this.sequence = sequence;
+			this.action = action;
+		}
+
+		@Override
+		public int compareTo(Event o) {
+			if (time != o.time)
+				return time < o.time ? -1 : 1;
+			return sequence < o.sequence ? -1 : sequence > o.sequence ? 1 : 0;
+		}
+	}
+
+}